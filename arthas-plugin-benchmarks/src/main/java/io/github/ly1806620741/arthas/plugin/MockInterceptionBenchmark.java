@@ -0,0 +1,198 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * mock 拦截热路径基准：同一个目标类分别以未增强、已清除、before、after、-j、抛异常几种方式运行。
+ * <p>
+ * 打包后执行 {@code java -jar arthas-plugin-benchmarks/target/benchmarks.jar -prof gc}，
+ * 通过 gc.alloc.rate.norm 对比每次调用的分配字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MockInterceptionBenchmark {
+
+    /**
+     * baseline: 未增强；noop: 已增强但 mock 已清除；sampled: before 只对 1% 的调用生效；其余为对应的 mock 方式。
+     */
+    @Param({ "baseline", "noop", "before", "after", "json", "exception", "sampled" })
+    public String scenario;
+
+    private MockTarget target;
+    private long base;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if ("baseline".equals(scenario)) {
+            target = new MockTargetImpl();
+            return;
+        }
+        installMocks(scenario);
+        target = (MockTarget) defineEnhancedTarget().getConstructor().newInstance();
+        if ("noop".equals(scenario)) {
+            MockCommand.OgnlMockAdvice.removeMock(MockTargetImpl.class);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        MockCommand.OgnlMockAdvice.removeMock(MockTargetImpl.class);
+    }
+
+    @Benchmark
+    public void price(Blackhole blackhole) {
+        try {
+            blackhole.consume(target.price(base++));
+        } catch (IllegalStateException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        try {
+            blackhole.consume(target.load());
+        } catch (IllegalStateException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    private static void installMocks(String scenario) {
+        switch (scenario) {
+        case "noop":
+        case "before":
+            putMock("price", "#this.returnObj=42L", null, null);
+            putMock("load", "#this.returnObj=null", null, null);
+            break;
+        case "after":
+            putMock("price", null, "#this.returnObj=#this.originReturnObj + 1L", null);
+            putMock("load", null, "#this.returnObj=#this.originReturnObj", null);
+            break;
+        case "json":
+            putMock("price", null, "#this.returnObj=#json", "7");
+            putMock("load", null, "#json.name='patched',#this.returnObj=#json", "{\"name\":\"json\"}");
+            break;
+        case "sampled":
+            putMock("price", "#this.returnObj=42L", null, null, 0.01d);
+            putMock("load", "#this.returnObj=null", null, null, 0.01d);
+            break;
+        case "exception":
+            putMock("price", null, "#this.throwExp=new java.lang.IllegalStateException('mock')", null);
+            putMock("load", null, "#this.throwExp=new java.lang.IllegalStateException('mock')", null);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    private static void putMock(String methodName, String beforeOgnl, String afterOgnl, String jsonPayload) {
+        putMock(methodName, beforeOgnl, afterOgnl, jsonPayload, 1.0d);
+    }
+
+    private static void putMock(String methodName, String beforeOgnl, String afterOgnl, String jsonPayload,
+            double ratio) {
+        Map<String, Object> options = new HashMap<>();
+        options.put(MockCommand.OgnlMockAdvice.BEFORE_OGNL, beforeOgnl);
+        options.put(MockCommand.OgnlMockAdvice.AFTER_OGNL, afterOgnl);
+        options.put(MockCommand.OgnlMockAdvice.JSON_PAYLOAD, jsonPayload);
+        options.put(MockCommand.OgnlMockAdvice.STRICT, false);
+        options.put(MockCommand.OgnlMockAdvice.RATIO, ratio);
+        MockCommand.OgnlMockAdvice.putMockConfig(MockTargetImpl.class, methodName, null, options);
+    }
+
+    /**
+     * 配置登记在原类上，增强后的字节码定义在独立类加载器里，两者共用同一组 mockId。
+     */
+    private static Class<?> defineEnhancedTarget() throws Exception {
+        byte[] enhancedBytes = AsmMockEnhancer.enhance(MockTargetImpl.class,
+                MockCommand.OgnlMockAdvice.getMockedMethodIds(MockTargetImpl.class));
+        return new EnhancedClassLoader(MockTargetImpl.class.getName(), enhancedBytes)
+                .loadClass(MockTargetImpl.class.getName());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MockInterceptionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    public interface MockTarget {
+        long price(long base);
+
+        Object load();
+    }
+
+    public static class MockTargetImpl implements MockTarget {
+        @Override
+        public long price(long base) {
+            return base * 3L + 1L;
+        }
+
+        @Override
+        public Object load() {
+            Item item = new Item();
+            item.name = "origin";
+            return item;
+        }
+    }
+
+    public static class Item {
+        public String name;
+    }
+
+    private static final class EnhancedClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> definitions = new HashMap<>();
+
+        private EnhancedClassLoader(String className, byte[] classBytes) {
+            super(MockInterceptionBenchmark.class.getClassLoader());
+            definitions.put(className, classBytes);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null && definitions.containsKey(name)) {
+                    byte[] classBytes = definitions.get(name);
+                    loaded = defineClass(name, classBytes, 0, classBytes.length);
+                }
+                if (loaded != null) {
+                    if (resolve) {
+                        resolveClass(loaded);
+                    }
+                    return loaded;
+                }
+                return super.loadClass(name, resolve);
+            }
+        }
+    }
+}
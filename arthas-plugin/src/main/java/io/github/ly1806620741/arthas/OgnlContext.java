@@ -43,6 +43,8 @@ public class OgnlContext {
 
     private Object json = Optional.empty();
 
+    private boolean returnObjAssigned;
+
     public static OgnlContext init(ClassLoader loader,
             Class<?> clazz,
             ArthasMethod method,
@@ -89,6 +91,22 @@ public class OgnlContext {
 
     public void setReturnObj(Object returnObj) {
         this.returnObj = returnObj == null ? Optional.empty() : returnObj;
+        this.returnObjAssigned = true;
+    }
+
+    /**
+     * 用原方法返回值覆盖 returnObj，不计为表达式赋值。
+     */
+    public void resetReturnObj(Object returnObj) {
+        this.returnObj = returnObj == null ? Optional.empty() : returnObj;
+        this.returnObjAssigned = false;
+    }
+
+    /**
+     * 表达式是否显式给 returnObj 赋过值（包括赋 null）。
+     */
+    public boolean isReturnObjAssigned() {
+        return returnObjAssigned;
     }
 
     public Object getJson() {
@@ -1,9 +1,8 @@
 package io.github.ly1806620741.arthas.plugin;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Map;
 
 import com.alibaba.deps.org.objectweb.asm.ClassReader;
 import com.alibaba.deps.org.objectweb.asm.ClassVisitor;
@@ -18,104 +17,196 @@ import io.github.ly1806620741.arthas.OgnlContext;
 
 final class AsmMockEnhancer {
 
+    private static final int MAX_CONSTANT_UTF8_BYTES = 65535;
     private static final Type OBJECT_TYPE = Type.getType(Object.class);
     private static final Type OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
     private static final Type THROWABLE_TYPE = Type.getType(Throwable.class);
+    private static final Type LONG_OBJECT_TYPE = Type.getType(Long.class);
     private static final Type OGNL_CONTEXT_TYPE = Type.getType(OgnlContext.class);
     private static final Type COMPLETION_TYPE = Type.getType(MockCommand.OgnlMockAdvice.Completion.class);
-    private static final Type CLASS_TYPE = Type.getType(Class.class);
-    private static final Type STRING_TYPE = Type.getType(String.class);
     private static final Type ADVICE_TYPE = Type.getType(MockCommand.OgnlMockAdvice.class);
 
     private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_INVOKE_METHOD =
             new com.alibaba.deps.org.objectweb.asm.commons.Method(
                     "invoke",
                     OGNL_CONTEXT_TYPE,
-                    new Type[] { OBJECT_TYPE, CLASS_TYPE, STRING_TYPE, OBJECT_ARRAY_TYPE, Type.BOOLEAN_TYPE });
+                    new Type[] { OBJECT_TYPE, Type.INT_TYPE, OBJECT_ARRAY_TYPE, Type.BOOLEAN_TYPE });
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_IS_ACTIVE_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("isActive", Type.BOOLEAN_TYPE,
+                    new Type[] { Type.INT_TYPE, Type.BOOLEAN_TYPE });
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_RECORD_KEY_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("recordKey", LONG_OBJECT_TYPE,
+                    new Type[] { OBJECT_TYPE, Type.INT_TYPE, OBJECT_ARRAY_TYPE });
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_IS_RETURN_ACTIVE_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("isReturnActive", Type.BOOLEAN_TYPE,
+                    new Type[] { Type.INT_TYPE });
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_GET_RETURN_VALUE_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("getReturnValue", OBJECT_TYPE,
+                    new Type[] { Type.INT_TYPE });
     private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_IS_SKIPPED_METHOD =
             new com.alibaba.deps.org.objectweb.asm.commons.Method("isSkipped", Type.BOOLEAN_TYPE,
                     new Type[] { OGNL_CONTEXT_TYPE });
     private static final com.alibaba.deps.org.objectweb.asm.commons.Method ADVICE_COMPLETE_METHOD =
             new com.alibaba.deps.org.objectweb.asm.commons.Method("complete", COMPLETION_TYPE,
-                    new Type[] { OGNL_CONTEXT_TYPE, CLASS_TYPE, OBJECT_TYPE, THROWABLE_TYPE });
-    private static final com.alibaba.deps.org.objectweb.asm.commons.Method GET_RETURN_VALUE_METHOD =
-            new com.alibaba.deps.org.objectweb.asm.commons.Method("getReturnValue", OBJECT_TYPE, new Type[0]);
-    private static final com.alibaba.deps.org.objectweb.asm.commons.Method GET_THROWABLE_METHOD =
-            new com.alibaba.deps.org.objectweb.asm.commons.Method("getThrowable", THROWABLE_TYPE, new Type[0]);
+                    new Type[] { OGNL_CONTEXT_TYPE, Type.INT_TYPE, LONG_OBJECT_TYPE, OBJECT_TYPE, THROWABLE_TYPE });
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method TAKE_RETURN_VALUE_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("takeReturnValue", OBJECT_TYPE, new Type[0]);
+    private static final com.alibaba.deps.org.objectweb.asm.commons.Method TAKE_THROWABLE_METHOD =
+            new com.alibaba.deps.org.objectweb.asm.commons.Method("takeThrowable", THROWABLE_TYPE, new Type[0]);
 
     private AsmMockEnhancer() {
     }
 
-    static byte[] enhance(Class<?> clazz, Set<String> mockedMethodNames) throws IOException {
-        if (mockedMethodNames.isEmpty()) {
+    /**
+     * 基本类型返回值对应 OgnlMockAdvice.completeXxx，原值按基本类型传入并按基本类型返回。
+     */
+    private static com.alibaba.deps.org.objectweb.asm.commons.Method primitiveCompleteMethod(Type returnType) {
+        String name;
+        switch (returnType.getSort()) {
+        case Type.BOOLEAN:
+            name = "completeBoolean";
+            break;
+        case Type.BYTE:
+            name = "completeByte";
+            break;
+        case Type.CHAR:
+            name = "completeChar";
+            break;
+        case Type.SHORT:
+            name = "completeShort";
+            break;
+        case Type.INT:
+            name = "completeInt";
+            break;
+        case Type.LONG:
+            name = "completeLong";
+            break;
+        case Type.FLOAT:
+            name = "completeFloat";
+            break;
+        case Type.DOUBLE:
+            name = "completeDouble";
+            break;
+        default:
+            return null;
+        }
+        return new com.alibaba.deps.org.objectweb.asm.commons.Method(name, returnType,
+                new Type[] { OGNL_CONTEXT_TYPE, Type.INT_TYPE, LONG_OBJECT_TYPE, returnType });
+    }
+
+    static byte[] enhance(Class<?> clazz, Map<String, Integer> mockedMethodIds) throws IOException {
+        return enhance(clazz, mockedMethodIds, Collections.emptyMap());
+    }
+
+    /**
+     * mockedMethodIds 以 name+descriptor 为键，值为 OgnlMockAdvice 分配的 mockId，直接作为常量写入增强后的字节码。
+     * returnValues 中的方法在入口处额外生成常量返回：基本类型、字符串与 null 直接内联，其余对象从 OgnlMockAdvice 读取。
+     */
+    static byte[] enhance(Class<?> clazz, Map<String, Integer> mockedMethodIds, Map<String, Object> returnValues)
+            throws IOException {
+        if (mockedMethodIds.isEmpty()) {
+            throw new IllegalArgumentException("No method matched for class: " + clazz.getName());
+        }
+        return enhance(clazz, ClassBytesCache.load(clazz), mockedMethodIds, returnValues);
+    }
+
+    /**
+     * 以给定的字节码为输入增强，retransform 回调里传入 JVM 当前的 classfileBuffer。
+     */
+    static byte[] enhance(Class<?> clazz, byte[] originalBytes, Map<String, Integer> mockedMethodIds,
+            Map<String, Object> returnValues) {
+        if (mockedMethodIds.isEmpty()) {
             throw new IllegalArgumentException("No method matched for class: " + clazz.getName());
         }
-        byte[] originalBytes = readClassBytes(clazz);
         ClassReader classReader = new ClassReader(originalBytes);
         ClassWriter classWriter = new LoaderAwareClassWriter(classReader,
                 ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS, clazz.getClassLoader());
-        classReader.accept(new MockClassVisitor(classWriter, mockedMethodNames), ClassReader.EXPAND_FRAMES);
+        classReader.accept(new MockClassVisitor(classWriter, mockedMethodIds, returnValues),
+                ClassReader.EXPAND_FRAMES);
         return classWriter.toByteArray();
     }
 
-    private static byte[] readClassBytes(Class<?> clazz) throws IOException {
-        String resourceName = clazz.getName().replace('.', '/') + ".class";
-        ClassLoader classLoader = clazz.getClassLoader();
-        InputStream inputStream = classLoader != null
-                ? classLoader.getResourceAsStream(resourceName)
-                : ClassLoader.getSystemResourceAsStream(resourceName);
-        if (inputStream == null) {
-            throw new IOException("Unable to locate original class bytes for " + clazz.getName());
+    /**
+     * 增强结果相同的方法得到相同的键：普通方法为 name+descriptor，常量返回的方法追加内联的值，对象返回值只标记为 holder。
+     */
+    static String enhancementKey(String methodKey, Map<String, Object> returnValues) {
+        if (!returnValues.containsKey(methodKey)) {
+            return methodKey;
+        }
+        Object value = returnValues.get(methodKey);
+        Type returnType = Type.getReturnType(methodKey.substring(methodKey.indexOf('(')));
+        if (!isInlinable(returnType, value)) {
+            return methodKey + "=holder";
+        }
+        return methodKey + "=" + (value == null ? "null" : value.getClass().getSimpleName() + ":" + value);
+    }
+
+    private static boolean isInlinable(Type returnType, Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof String) {
+            return fitsConstantPool((String) value);
+        }
+        return returnType.getSort() >= Type.BOOLEAN && returnType.getSort() <= Type.DOUBLE;
+    }
+
+    /**
+     * 常量池的 CONSTANT_Utf8 最多 65535 字节（modified UTF-8：U+0000 与 U+0080-U+07FF 占 2 字节，更高的占 3 字节），
+     * 超出时 LDC 无法生成，改走 getReturnValue 的 holder 路径。
+     */
+    private static boolean fitsConstantPool(String value) {
+        if (value.length() <= MAX_CONSTANT_UTF8_BYTES / 3) {
+            return true;
         }
-        try (InputStream in = inputStream; ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[4096];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes += c >= '\u0001' && c <= '\u007F' ? 1 : c <= '\u07FF' ? 2 : 3;
+            if (bytes > MAX_CONSTANT_UTF8_BYTES) {
+                return false;
             }
-            return out.toByteArray();
         }
+        return true;
     }
 
     private static final class MockClassVisitor extends ClassVisitor {
 
-        private final Set<String> mockedMethodNames;
-        private String classInternalName;
+        private final Map<String, Integer> mockedMethodIds;
+        private final Map<String, Object> returnValues;
 
-        private MockClassVisitor(ClassVisitor classVisitor, Set<String> mockedMethodNames) {
+        private MockClassVisitor(ClassVisitor classVisitor, Map<String, Integer> mockedMethodIds,
+                Map<String, Object> returnValues) {
             super(Opcodes.ASM9, classVisitor);
-            this.mockedMethodNames = mockedMethodNames;
-        }
-
-        @Override
-        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            this.classInternalName = name;
-            super.visit(version, access, name, signature, superName, interfaces);
+            this.mockedMethodIds = mockedMethodIds;
+            this.returnValues = returnValues;
         }
 
         @Override
         public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
                 String[] exceptions) {
             MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
-            if (shouldEnhance(access, name)) {
-                return new MockMethodVisitor(methodVisitor, access, name, descriptor,
-                        Type.getObjectType(classInternalName));
+            Integer mockId = mockedMethodIds.get(name + descriptor);
+            if (mockId != null && shouldEnhance(access, name)) {
+                return new MockMethodVisitor(methodVisitor, access, name, descriptor, mockId,
+                        returnValues.containsKey(name + descriptor), returnValues.get(name + descriptor));
             }
             return methodVisitor;
         }
 
         private boolean shouldEnhance(int access, String name) {
-            return mockedMethodNames.contains(name)
-                    && !"<init>".equals(name)
+            return !"<init>".equals(name)
                     && !"<clinit>".equals(name)
-                    && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+                    && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE | Opcodes.ACC_BRIDGE
+                            | Opcodes.ACC_SYNTHETIC)) == 0;
         }
     }
 
     private static final class MockMethodVisitor extends AdviceAdapter {
 
-        private final Type ownerType;
-        private final String methodName;
+        private final int mockId;
+        private final boolean constantReturn;
+        private final Object constantValue;
         private final Type returnType;
         private final Type[] argumentTypes;
         private final Label tryStart = new Label();
@@ -124,49 +215,61 @@ final class AsmMockEnhancer {
 
         private int argsArrayLocal;
         private int contextLocal;
+        private int recordKeyLocal;
         private int completionLocal;
+        private int completedLocal;
         private boolean tryBlockStarted;
 
         private MockMethodVisitor(MethodVisitor methodVisitor, int access, String name, String descriptor,
-                Type ownerType) {
+                int mockId, boolean constantReturn, Object constantValue) {
             super(Opcodes.ASM9, methodVisitor, access, name, descriptor);
-            this.ownerType = ownerType;
-            this.methodName = name;
+            this.mockId = mockId;
+            this.constantReturn = constantReturn;
+            this.constantValue = constantValue;
             this.returnType = Type.getReturnType(descriptor);
             this.argumentTypes = Type.getArgumentTypes(descriptor);
         }
 
+        /**
+         * 先用 isActive 判断该方法的入口动作是否仍然生效，只有生效时才装箱参数、创建 OgnlContext；
+         * --record 本次被选中时在入口按原始参数算出录制键，留给出口使用，方法体里改写或修改参数不影响键；
+         * 已清除但尚未重新 retransform 的方法在入口处不产生任何分配。
+         */
         @Override
         protected void onMethodEnter() {
+            if (constantReturn) {
+                emitConstantReturn();
+            }
             argsArrayLocal = newLocal(OBJECT_ARRAY_TYPE);
             contextLocal = newLocal(OGNL_CONTEXT_TYPE);
+            recordKeyLocal = newLocal(LONG_OBJECT_TYPE);
             completionLocal = newLocal(COMPLETION_TYPE);
+            completedLocal = newLocal(Type.BOOLEAN_TYPE);
 
-            push(argumentTypes.length);
-            newArray(OBJECT_TYPE);
-            storeLocal(argsArrayLocal);
+            visitInsn(Opcodes.ACONST_NULL);
+            storeLocal(contextLocal);
+            visitInsn(Opcodes.ACONST_NULL);
+            storeLocal(recordKeyLocal);
+            push(false);
+            storeLocal(completedLocal);
 
-            for (int i = 0; i < argumentTypes.length; i++) {
-                loadLocal(argsArrayLocal);
-                push(i);
-                loadArg(i);
-                boxIfNeeded(argumentTypes[i]);
-                arrayStore(OBJECT_TYPE);
-            }
+            Label continueLabel = newLabel();
+            Label recordLabel = newLabel();
+            push(mockId);
+            push(false);
+            invokeStatic(ADVICE_TYPE, ADVICE_IS_ACTIVE_METHOD);
+            ifZCmp(EQ, recordLabel);
 
-            if ((methodAccess & Opcodes.ACC_STATIC) != 0) {
-                visitInsn(Opcodes.ACONST_NULL);
-            } else {
-                loadThis();
-            }
-            push(ownerType);
-            push(methodName);
+            loadArgArray();
+            storeLocal(argsArrayLocal);
+
+            loadTargetOrNull();
+            push(mockId);
             loadLocal(argsArrayLocal);
             push(false);
             invokeStatic(ADVICE_TYPE, ADVICE_INVOKE_METHOD);
             storeLocal(contextLocal);
 
-            Label continueLabel = newLabel();
             loadLocal(contextLocal);
             ifNull(continueLabel);
 
@@ -185,40 +288,128 @@ final class AsmMockEnhancer {
             invokeCompleteWithDefaultReturn();
             emitTerminalExit();
 
+            mark(recordLabel);
+            push(mockId);
+            push(true);
+            invokeStatic(ADVICE_TYPE, ADVICE_IS_ACTIVE_METHOD);
+            ifZCmp(EQ, continueLabel);
+            loadTargetOrNull();
+            push(mockId);
+            loadArgArray();
+            invokeStatic(ADVICE_TYPE, ADVICE_RECORD_KEY_METHOD);
+            storeLocal(recordKeyLocal);
+
             mark(continueLabel);
             mark(tryStart);
             tryBlockStarted = true;
         }
 
+        /**
+         * --return 的快速路径：isReturnActive 只读槽位并做 -n/--ratio/--rate 判断，通过后直接返回常量，
+         * 不装箱参数也不创建上下文；槽位被 --clear 置空或改成其它 mock 后退化为后面的普通分发桩。
+         */
+        private void emitConstantReturn() {
+            Label continueLabel = newLabel();
+            push(mockId);
+            invokeStatic(ADVICE_TYPE, ADVICE_IS_RETURN_ACTIVE_METHOD);
+            ifZCmp(EQ, continueLabel);
+            if (!Type.VOID_TYPE.equals(returnType)) {
+                pushReturnValue();
+            }
+            returnValue();
+            mark(continueLabel);
+        }
+
+        private void pushReturnValue() {
+            if (!isInlinable(returnType, constantValue)) {
+                push(mockId);
+                invokeStatic(ADVICE_TYPE, ADVICE_GET_RETURN_VALUE_METHOD);
+                checkCast(returnType);
+                return;
+            }
+            if (constantValue == null) {
+                visitInsn(Opcodes.ACONST_NULL);
+                return;
+            }
+            if (constantValue instanceof String) {
+                push((String) constantValue);
+                return;
+            }
+            switch (returnType.getSort()) {
+            case Type.BOOLEAN:
+                push((Boolean) constantValue);
+                return;
+            case Type.CHAR:
+                push(constantValue instanceof Character ? (int) (Character) constantValue
+                        : ((Number) constantValue).intValue());
+                return;
+            case Type.LONG:
+                push(((Number) constantValue).longValue());
+                return;
+            case Type.FLOAT:
+                push(((Number) constantValue).floatValue());
+                return;
+            case Type.DOUBLE:
+                push(((Number) constantValue).doubleValue());
+                return;
+            default:
+                push(((Number) constantValue).intValue());
+            }
+        }
+
         @Override
         protected void onMethodExit(int opcode) {
             if (opcode == ATHROW) {
                 return;
             }
 
-            int returnedObjectLocal = newLocal(OBJECT_TYPE);
-            int thrownLocal = newLocal(THROWABLE_TYPE);
-            if (Type.VOID_TYPE.equals(returnType)) {
-                visitInsn(Opcodes.ACONST_NULL);
-                storeLocal(returnedObjectLocal);
-            } else {
-                int originalReturnLocal = newLocal(returnType);
+            Label passThroughLabel = newLabel();
+            Label endLabel = newLabel();
+            int originalReturnLocal = -1;
+            if (!Type.VOID_TYPE.equals(returnType)) {
+                originalReturnLocal = newLocal(returnType);
                 storeLocal(originalReturnLocal);
+            }
+            emitInactiveCheck(passThroughLabel);
+            // 出口处已经调用过 complete，之后抛出的异常（mock 设置的 throwExp）不再交给 catch 块重复处理
+            push(true);
+            storeLocal(completedLocal);
+
+            com.alibaba.deps.org.objectweb.asm.commons.Method primitiveCompleteMethod =
+                    primitiveCompleteMethod(returnType);
+            if (primitiveCompleteMethod != null) {
+                pushCompleteArguments();
                 loadLocal(originalReturnLocal);
-                boxIfNeeded(returnType);
+                invokeStatic(ADVICE_TYPE, primitiveCompleteMethod);
+                goTo(endLabel);
+            } else {
+                int returnedObjectLocal = newLocal(OBJECT_TYPE);
+                int thrownLocal = newLocal(THROWABLE_TYPE);
+                if (Type.VOID_TYPE.equals(returnType)) {
+                    visitInsn(Opcodes.ACONST_NULL);
+                } else {
+                    loadLocal(originalReturnLocal);
+                }
                 storeLocal(returnedObjectLocal);
-            }
 
-            visitInsn(Opcodes.ACONST_NULL);
-            storeLocal(thrownLocal);
-            invokeComplete(returnedObjectLocal, thrownLocal);
-            emitCompletionThrowableCheck();
+                visitInsn(Opcodes.ACONST_NULL);
+                storeLocal(thrownLocal);
+                invokeComplete(returnedObjectLocal, thrownLocal);
+                emitCompletionThrowableCheck();
+
+                if (!Type.VOID_TYPE.equals(returnType)) {
+                    loadLocal(completionLocal);
+                    invokeVirtual(COMPLETION_TYPE, TAKE_RETURN_VALUE_METHOD);
+                    castOrUnbox(returnType);
+                }
+                goTo(endLabel);
+            }
 
+            mark(passThroughLabel);
             if (!Type.VOID_TYPE.equals(returnType)) {
-                loadLocal(completionLocal);
-                invokeVirtual(COMPLETION_TYPE, GET_RETURN_VALUE_METHOD);
-                castOrUnbox(returnType);
+                loadLocal(originalReturnLocal);
             }
+            mark(endLabel);
         }
 
         @Override
@@ -230,14 +421,35 @@ final class AsmMockEnhancer {
                 int throwableLocal = newLocal(THROWABLE_TYPE);
                 int returnedObjectLocal = newLocal(OBJECT_TYPE);
                 storeLocal(throwableLocal);
+
+                Label rethrowLabel = newLabel();
+                loadLocal(completedLocal);
+                ifZCmp(NE, rethrowLabel);
+                emitInactiveCheck(rethrowLabel);
                 pushBoxedDefaultValue(returnType);
                 storeLocal(returnedObjectLocal);
                 invokeComplete(returnedObjectLocal, throwableLocal);
                 emitTerminalExit();
+
+                mark(rethrowLabel);
+                loadLocal(throwableLocal);
+                throwException();
             }
             super.visitMaxs(maxStack, maxLocals);
         }
 
+        /**
+         * 入口既没有创建上下文也没有算出录制键时跳到 inactiveLabel，原返回值/异常不经装箱直接透传。
+         */
+        private void emitInactiveCheck(Label inactiveLabel) {
+            Label activeLabel = newLabel();
+            loadLocal(contextLocal);
+            ifNonNull(activeLabel);
+            loadLocal(recordKeyLocal);
+            ifNull(inactiveLabel);
+            mark(activeLabel);
+        }
+
         private void invokeCompleteWithDefaultReturn() {
             int returnedObjectLocal = newLocal(OBJECT_TYPE);
             int thrownLocal = newLocal(THROWABLE_TYPE);
@@ -249,23 +461,36 @@ final class AsmMockEnhancer {
         }
 
         private void invokeComplete(int returnedObjectLocal, int thrownLocal) {
-            loadLocal(contextLocal);
-            push(ownerType);
+            pushCompleteArguments();
             loadLocal(returnedObjectLocal);
             loadLocal(thrownLocal);
             invokeStatic(ADVICE_TYPE, ADVICE_COMPLETE_METHOD);
             storeLocal(completionLocal);
         }
 
+        private void pushCompleteArguments() {
+            loadLocal(contextLocal);
+            push(mockId);
+            loadLocal(recordKeyLocal);
+        }
+
+        private void loadTargetOrNull() {
+            if ((methodAccess & Opcodes.ACC_STATIC) != 0) {
+                visitInsn(Opcodes.ACONST_NULL);
+            } else {
+                loadThis();
+            }
+        }
+
         private void emitCompletionThrowableCheck() {
             Label noThrowableLabel = newLabel();
             loadLocal(completionLocal);
-            invokeVirtual(COMPLETION_TYPE, GET_THROWABLE_METHOD);
+            invokeVirtual(COMPLETION_TYPE, TAKE_THROWABLE_METHOD);
+            dup();
             ifNull(noThrowableLabel);
-            loadLocal(completionLocal);
-            invokeVirtual(COMPLETION_TYPE, GET_THROWABLE_METHOD);
             throwException();
             mark(noThrowableLabel);
+            pop();
         }
 
         private void emitTerminalExit() {
@@ -275,17 +500,11 @@ final class AsmMockEnhancer {
                 return;
             }
             loadLocal(completionLocal);
-            invokeVirtual(COMPLETION_TYPE, GET_RETURN_VALUE_METHOD);
+            invokeVirtual(COMPLETION_TYPE, TAKE_RETURN_VALUE_METHOD);
             castOrUnbox(returnType);
             returnValue();
         }
 
-        private void boxIfNeeded(Type type) {
-            if (type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) {
-                box(type);
-            }
-        }
-
         private void castOrUnbox(Type type) {
             if (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY) {
                 checkCast(type);
@@ -336,36 +555,12 @@ final class AsmMockEnhancer {
             this.classLoader = classLoader;
         }
 
+        /**
+         * 按 .class 资源解析类型层次，避免 COMPUTE_FRAMES 为每对类型 Class.forName 而加载甚至初始化无关的业务类。
+         */
         @Override
         protected String getCommonSuperClass(String type1, String type2) {
-            try {
-                Class<?> class1 = loadClass(type1);
-                Class<?> class2 = loadClass(type2);
-                if (class1.isAssignableFrom(class2)) {
-                    return type1;
-                }
-                if (class2.isAssignableFrom(class1)) {
-                    return type2;
-                }
-                if (class1.isInterface() || class2.isInterface()) {
-                    return "java/lang/Object";
-                }
-                do {
-                    class1 = class1.getSuperclass();
-                } while (class1 != null && !class1.isAssignableFrom(class2));
-                return class1 == null ? "java/lang/Object" : Type.getInternalName(class1);
-            } catch (ClassNotFoundException e) {
-                throw new IllegalStateException("Failed to resolve common super class for " + type1 + " and " + type2,
-                        e);
-            }
-        }
-
-        private Class<?> loadClass(String internalName) throws ClassNotFoundException {
-            String className = internalName.replace('/', '.');
-            if (classLoader != null) {
-                return Class.forName(className, false, classLoader);
-            }
-            return Class.forName(className, false, ClassLoader.getSystemClassLoader());
+            return TypeHierarchy.getCommonSuperClass(type1, type2, classLoader);
         }
     }
 }
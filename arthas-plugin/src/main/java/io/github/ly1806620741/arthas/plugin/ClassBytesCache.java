@@ -0,0 +1,111 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 增强前的类字节码缓存：按类名 + 类加载器（弱引用）做 LRU，总大小有上限，反复 mock/clear 同一个类时不再读 jar。
+ * <p>
+ * 只缓存 {@link MockTransformer} 在 retransform 回调里收到的字节码，不额外触发 retransform；
+ * 这里取到的字节码只用于并行预增强，回调时与 JVM 的实际输入不一致（其它 agent 改写过、缓存已淘汰）就按实际输入重新增强。
+ */
+final class ClassBytesCache {
+
+    private static final long MAX_CACHE_BYTES = 32L * 1024 * 1024;
+    /** 单个类超过上限的 1/4 不缓存，避免一个大类把其它条目全部挤掉 */
+    private static final long MAX_ENTRY_BYTES = MAX_CACHE_BYTES / 4;
+
+    private static final LinkedHashMap<Key, byte[]> CACHE = new LinkedHashMap<>(64, 0.75f, true);
+    private static long cachedBytes;
+
+    private ClassBytesCache() {
+    }
+
+    /**
+     * 命中缓存直接返回，否则读取类加载器中的 .class 资源；读到的资源不放入缓存，它未必与 JVM 中的字节码一致。
+     */
+    static byte[] load(Class<?> clazz) throws IOException {
+        byte[] classBytes = get(clazz);
+        return classBytes != null ? classBytes : readResource(clazz);
+    }
+
+    static synchronized byte[] get(Class<?> clazz) {
+        return CACHE.get(new Key(clazz));
+    }
+
+    static synchronized void put(Class<?> clazz, byte[] classBytes) {
+        if (classBytes.length > MAX_ENTRY_BYTES) {
+            return;
+        }
+        byte[] previous = CACHE.put(new Key(clazz), classBytes);
+        cachedBytes += classBytes.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<Key, byte[]>> iterator = CACHE.entrySet().iterator();
+        while (cachedBytes > MAX_CACHE_BYTES && iterator.hasNext()) {
+            cachedBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private static byte[] readResource(Class<?> clazz) throws IOException {
+        String resourceName = clazz.getName().replace('.', '/') + ".class";
+        ClassLoader classLoader = clazz.getClassLoader();
+        InputStream inputStream = classLoader != null
+                ? classLoader.getResourceAsStream(resourceName)
+                : ClassLoader.getSystemResourceAsStream(resourceName);
+        if (inputStream == null) {
+            throw new IOException("Unable to locate original class bytes for " + clazz.getName());
+        }
+        try (InputStream in = inputStream;
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 4096))) {
+            byte[] buffer = new byte[16384];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * 不直接持有 Class，避免缓存阻止业务类加载器卸载；加载器被回收后条目不再命中，随 LRU 淘汰。
+     */
+    private static final class Key {
+
+        private final String className;
+        private final WeakReference<ClassLoader> loader;
+        private final int loaderHash;
+
+        private Key(Class<?> clazz) {
+            this.className = clazz.getName();
+            this.loader = new WeakReference<>(clazz.getClassLoader());
+            this.loaderHash = System.identityHashCode(clazz.getClassLoader());
+        }
+
+        private boolean isStale() {
+            return loaderHash != 0 && loader.get() == null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return loaderHash == other.loaderHash && className.equals(other.className)
+                    && loader.get() == other.loader.get() && !isStale();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * className.hashCode() + loaderHash;
+        }
+    }
+}
@@ -1,21 +1,39 @@
 package io.github.ly1806620741.arthas.plugin;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.CodeSource;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.jar.JarFile;
 
 import com.taobao.arthas.core.GlobalOptions;
@@ -24,13 +42,12 @@ import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.alibaba.bytekit.utils.Decompiler;
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
 import com.alibaba.fastjson2.JSONReader;
-import com.taobao.arthas.common.ReflectUtils;
+import com.alibaba.fastjson2.JSONWriter;
 import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.command.express.ExpressException;
-import com.taobao.arthas.core.command.express.ExpressFactory;
-import com.taobao.arthas.core.command.klass100.RetransformCommand;
-import com.taobao.arthas.core.command.klass100.RetransformCommand.RetransformEntry;
 import com.taobao.arthas.core.command.model.EnhancerModelFactory;
 import com.taobao.arthas.core.shell.cli.Completion;
 import com.taobao.arthas.core.shell.cli.CompletionUtils;
@@ -49,7 +66,6 @@ import com.taobao.middleware.cli.annotations.Option;
 import com.taobao.middleware.cli.annotations.Summary;
 
 import io.github.ly1806620741.arthas.OgnlContext;
-import ognl.OgnlRuntime;
 
 @Name("mock")
 @Summary("Arthas 4.1.4 自定义Mock命令：动态mock指定类的指定方法返回值/抛出异常/修改入参，无侵入不重启")
@@ -59,35 +75,67 @@ import ognl.OgnlRuntime;
         "  3. 抛出指定异常: mock com.demo.PayService pay -e 'new RuntimeException(\"支付失败\")'\n" +
         "  4. 修改方法入参: mock com.demo.UserService updateUser -b '[0, {\"id\":1,\"name\":\"modify\"}]'\n" +
         "  5. 清除指定mock: mock com.demo.UserService getUserById --clear\n" +
-        "  6. 查看当前mock列表: mock --list\n" +
+        "  6. 查看当前mock列表: mock --list，附带调用次数/跳过/失败与耗时分位: mock --list --stats\n" +
         "  7. 清除全部mock: mock --clear-all\n" +
         "  8. -j 预载JSON后修改返回值: mock com.demo.UserService getUser -j '{\"id\":1,\"profile\":{\"name\":\"arthas\"}}' -a '#json.profile.name=\"changed\",#this.returnObj=#json'\n" +
         "  9. -j 预载JSON后替换单个对象入参,arthas受限无法输入中文可以用unicode输入: mock com.demo.UserService save -j '{\"profile\":{\"name\":\"arthas\\u4E2D\\u6587\"}}' -b '#json.profile.name=\"patched\",#this.params[0]=#json,#this.skip=false'\n" +
         " 10. -j 预载JSON数组后替换多个入参: mock com.demo.OrderService create -j '[\"mock\", {\"id\":1}]' -b '#this.params[0]=#json[0],#this.params[1]=#json[1],#this.skip=false'\n" +
         " 11. JSON支持@type指定具体对象类型: mock com.demo.AnimalService load -j '{\"@type\":\"com.demo.Dog\",\"name\":\"arthas\"}' -a '#this.returnObj=#json'\n" +
-        " 12. 双层多态预解析示例(外层容器+内层元素都带@type): mock com.demo.AnimalService save -j '{\"@type\":\"com.demo.GenericListResult\",\"items\":[{\"@type\":\"com.demo.Dog\",\"name\":\"arthas\"}]}' -b '#json.items[0].name=\"patched\",#this.params[0]=#json,#this.skip=false'\n")
+        " 12. 双层多态预解析示例(外层容器+内层元素都带@type): mock com.demo.AnimalService save -j '{\"@type\":\"com.demo.GenericListResult\",\"items\":[{\"@type\":\"com.demo.Dog\",\"name\":\"arthas\"}]}' -b '#json.items[0].name=\"patched\",#this.params[0]=#json,#this.skip=false'\n" +
+        " 13. 只mock指定重载: mock com.demo.UserService find -d '(Ljava/lang/String;)Lcom/demo/User;' -a '#this.returnObj=null'\n" +
+        " 14. 只生效N次后自动恢复原方法: mock com.demo.UserService getUserById -n 3 -b '#this.returnObj=null'\n" +
+        " 15. 限时生效，到期后台自动恢复(会话断开也会到期): mock com.demo.PayService pay --ttl 5m -b '#this.throwExp=new java.lang.RuntimeException(\"故障注入\")'\n" +
+        " 16. 只对部分调用生效(模拟局部故障): mock com.demo.PayService pay --ratio 0.1 --rate 20/s -b '#this.throwExp=new java.lang.RuntimeException(\"故障注入\")'\n" +
+        " 17. 按条件生效(条件在创建mock上下文前对入参求值): mock com.demo.UserService getUserById -c 'params[0]==1001L' -b '#this.returnObj=null'\n" +
+        " 18. 从场景文件批量安装(只做一次retransform): mock --file /tmp/scenario.json，导出当前mock: mock --export /tmp/scenario.json\n" +
+        " 19. 直接返回常量(写入增强字节码，不经过OGNL): mock com.demo.FeatureService isEnabled --return true，对象按JSON转换: mock com.demo.UserService getUserById --return '{\"id\":100}'\n" +
+        " 20. 注入延迟(不占CPU，可与--ratio组合模拟长尾): mock com.demo.PayService pay --delay 'normal(200ms,50ms)' --ratio 0.05\n" +
+        " 21. 录制真实返回值/异常后在其它节点按参数回放(未录到的参数走原方法): mock com.demo.UserClient query --record /tmp/query.rec，回放: mock com.demo.UserClient query --replay /tmp/query.rec\n" +
+        " 22. 按参数查响应表(哈希索引，未命中走原方法或 default): mock com.demo.UserClient query --table /tmp/users.json\n")
 public class MockCommand extends AnnotatedCommand {
 
     private static final Logger logger = LoggerFactory.getLogger(MockCommand.class);
 
     private String classPattern;
     private String methodPattern;
+    private String methodDescriptor;
     private String beforeOgnl;
     private String afterOgnl;
     private String jsonPayload;
+    private String returnValue;
+    private String delay;
+    private String recordFile;
+    private String replayFile;
+    private String tableFile;
     private boolean isException = false;
     private boolean clear = false;
     private boolean clearAll = false;
     private boolean list = false;
+    private boolean stats = false;
     private Integer sizeLimit = 10 * 1024 * 1024;
     private boolean isRegEx = false;
-    private int numberOfLimit = 100;
+    private int numberOfLimit = 0;
+    private String ttl;
+    private Double ratio;
+    private String rate;
+    private String conditionExpress;
+    private String scenarioFile;
+    private String exportFile;
     private boolean verbose = false;
 
-    private String hashCode;
-    private String classLoaderClass;
-    private static final List<Class<?>> mockClass = new ArrayList<>();
+    /**
+     * 每个已增强类当前字节码里带分发桩的方法（name+descriptor，内联了 --return 常量的方法带上常量），只在 RETRANSFORM_LOCK 内读写。
+     */
+    private static final Map<Class<?>, Set<String>> enhancedMethods = new LinkedHashMap<>();
     private static final AtomicBoolean APPENDED_TO_SYSTEM_CLASSLOADER = new AtomicBoolean(false);
+    /** 安装与 --clear-all 都会改写同一批类的 transformer 登记与增强状态，统一串行 */
+    private static final Object RETRANSFORM_LOCK = new Object();
+    private static final ScheduledExecutorService MOCK_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "arthas-mock-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
     private static final String SPRING_CGLIB_MARKER = "$$EnhancerBySpringCGLIB$$";
     private static final String SPRING_CGLIB_MARKER_ALT = "$$SpringCGLIB$$";
     private static final String CGLIB_MARKER = "$$EnhancerByCGLIB$$";
@@ -105,6 +153,12 @@ public class MockCommand extends AnnotatedCommand {
         this.methodPattern = methodPattern;
     }
 
+    @Option(shortName = "d", longName = "descriptor")
+    @Description("JVM method descriptor to pick one overload, e.g. (Ljava/lang/String;)V (all overloads by default)")
+    public void setMethodDescriptor(String methodDescriptor) {
+        this.methodDescriptor = methodDescriptor;
+    }
+
     @Option(shortName = "b", longName = "beforeOgnl")
     @Description("Mock before method invocation (修改入参/立即返回)")
     public void setBeforeOgnl(String beforeOgnl) {
@@ -117,12 +171,48 @@ public class MockCommand extends AnnotatedCommand {
         this.afterOgnl = afterOgnl;
     }
 
+    @Option(shortName = "c", longName = "condition")
+    @Description("Condition express evaluated on params/target before building the mock context, e.g. 'params[0]==1001'")
+    public void setConditionExpress(String conditionExpress) {
+        this.conditionExpress = conditionExpress;
+    }
+
     @Option(shortName = "j", longName = "json")
     @Description("JSON payload bound to #this.json before OGNL execution")
     public void setJsonPayload(String jsonPayload) {
         this.jsonPayload = jsonPayload;
     }
 
+    @Option(longName = "return")
+    @Description("Return a literal or JSON value directly, the value is inlined into the enhanced bytecode")
+    public void setReturnValue(String returnValue) {
+        this.returnValue = returnValue;
+    }
+
+    @Option(longName = "delay")
+    @Description("Inject latency: 200ms, uniform(100ms,300ms) or normal(200ms,50ms), applied on entry")
+    public void setDelay(String delay) {
+        this.delay = delay;
+    }
+
+    @Option(longName = "record")
+    @Description("Record real return values/exceptions keyed by argument hash into the file")
+    public void setRecordFile(String recordFile) {
+        this.recordFile = recordFile;
+    }
+
+    @Option(longName = "replay")
+    @Description("Replay results recorded by --record, calls with unrecorded arguments run the real method")
+    public void setReplayFile(String replayFile) {
+        this.replayFile = replayFile;
+    }
+
+    @Option(longName = "table")
+    @Description("JSON table from argument tuples to return values/exceptions, unmatched calls run the real method")
+    public void setTableFile(String tableFile) {
+        this.tableFile = tableFile;
+    }
+
     @Option(shortName = "e", longName = "exception", flag = true)
     @Description("Throw exception instead of normal return")
     public void setException(boolean exception) {
@@ -147,6 +237,24 @@ public class MockCommand extends AnnotatedCommand {
         this.list = list;
     }
 
+    @Option(longName = "file")
+    @Description("Install all mocks defined in a JSON scenario file with a single retransform")
+    public void setScenarioFile(String scenarioFile) {
+        this.scenarioFile = scenarioFile;
+    }
+
+    @Option(longName = "export")
+    @Description("Export active mocks to a JSON scenario file that can be installed again with --file")
+    public void setExportFile(String exportFile) {
+        this.exportFile = exportFile;
+    }
+
+    @Option(longName = "stats", flag = true)
+    @Description("Show invocation/skip/failure counts and evaluation latency percentiles with --list")
+    public void setStats(boolean stats) {
+        this.stats = stats;
+    }
+
     @Option(shortName = "M", longName = "sizeLimit")
     @Description("Upper size limit in bytes for the result (10 * 1024 * 1024 by default)")
     public void setSizeLimit(Integer sizeLimit) {
@@ -160,11 +268,29 @@ public class MockCommand extends AnnotatedCommand {
     }
 
     @Option(shortName = "n", longName = "limits")
-    @Description("Threshold of execution times")
+    @Description("Threshold of execution times, the mock is removed after taking effect N times (unlimited by default)")
     public void setNumberOfLimit(int numberOfLimit) {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(longName = "ttl")
+    @Description("Time to live of the mock, e.g. 500ms, 30s, 5m, 1h (seconds if no unit, forever by default)")
+    public void setTtl(String ttl) {
+        this.ttl = ttl;
+    }
+
+    @Option(longName = "ratio")
+    @Description("Fraction of calls the mock takes effect on, in (0, 1] (all calls by default)")
+    public void setRatio(Double ratio) {
+        this.ratio = ratio;
+    }
+
+    @Option(longName = "rate")
+    @Description("Max calls per second the mock takes effect on, e.g. 5 or 5/s, or per minute like 30/m (unlimited by default)")
+    public void setRate(String rate) {
+        this.rate = rate;
+    }
+
     @Option(shortName = "v", longName = "verbose", flag = true)
     @Description("Enable verbose output")
     public void setVerbose(boolean verbose) {
@@ -179,6 +305,10 @@ public class MockCommand extends AnnotatedCommand {
         return methodPattern;
     }
 
+    public String getMethodDescriptor() {
+        return methodDescriptor;
+    }
+
     public String getBeforeOgnl() {
         return beforeOgnl;
     }
@@ -191,6 +321,30 @@ public class MockCommand extends AnnotatedCommand {
         return jsonPayload;
     }
 
+    public String getConditionExpress() {
+        return conditionExpress;
+    }
+
+    public String getReturnValue() {
+        return returnValue;
+    }
+
+    public String getDelay() {
+        return delay;
+    }
+
+    public String getRecordFile() {
+        return recordFile;
+    }
+
+    public String getReplayFile() {
+        return replayFile;
+    }
+
+    public String getTableFile() {
+        return tableFile;
+    }
+
     public boolean isException() {
         return isException;
     }
@@ -207,6 +361,18 @@ public class MockCommand extends AnnotatedCommand {
         return numberOfLimit;
     }
 
+    public String getTtl() {
+        return ttl;
+    }
+
+    public Double getRatio() {
+        return ratio;
+    }
+
+    public String getRate() {
+        return rate;
+    }
+
     public boolean isVerbose() {
         return verbose;
     }
@@ -249,14 +415,24 @@ public class MockCommand extends AnnotatedCommand {
             Class<?> runtimeAdviceClass = ensureAdviceClassesVisible(inst);
 
             if (list) {
-                process.end(0, formatMockList(describeRuntimeMocks(runtimeAdviceClass)));
+                process.end(0, formatMockList(describeRuntimeMocks(runtimeAdviceClass, stats)));
+                return;
+            }
+
+            if (exportFile != null) {
+                List<Map<String, Object>> definitions = exportRuntimeMocks(runtimeAdviceClass);
+                Path exportPath = Paths.get(exportFile).toAbsolutePath();
+                Files.write(exportPath, JSON.toJSONString(definitions, JSONWriter.Feature.PrettyFormat)
+                        .getBytes(StandardCharsets.UTF_8));
+                process.end(0, "Exported " + definitions.size() + " mocks to " + exportPath);
                 return;
             }
 
             // 处理清除逻辑
             if (clearAll) {
-                clearAllMocks(inst);
-                process.appendResult(EnhancerModelFactory.create(new EnhancerAffect(), true, "All mocks cleared."));
+                MockCostMetrics metrics = new MockCostMetrics();
+                clearAllMocks(inst, metrics);
+                appendCostResult(process, "All mocks cleared.", metrics);
                 process.end(0, "OK");
                 return;
             }
@@ -266,102 +442,504 @@ public class MockCommand extends AnnotatedCommand {
                     process.end(-1, "--clear requires class-pattern and method-pattern");
                     return;
                 }
-                clearMock(inst);
-                process.appendResult(EnhancerModelFactory.create(new EnhancerAffect(), true, "Mock cleared."));
+                MockCostMetrics metrics = new MockCostMetrics();
+                clearMock(inst, metrics);
+                appendCostResult(process, "Mock cleared.", metrics);
                 process.end(0, "OK");
                 return;
             }
 
-            // 检查必要参数
-            if (classPattern == null || methodPattern == null) {
-                process.end(-1, "class-pattern and method-pattern are required.");
+            if (scenarioFile != null) {
+                installScenario(process, inst, runtimeAdviceClass);
                 return;
             }
 
-            if (shouldRejectInstallUnderStrictMode()) {
-                process.end(-1, STRICT_DISABLE_HINT);
+            MockCostMetrics metrics = new MockCostMetrics();
+            String error = validateInstallOptions();
+            if (error == null) {
+                Map<Class<?>, Set<String>> methodsByTargetClass = new LinkedHashMap<>();
+                error = matchTargetMethods(inst, methodsByTargetClass, metrics);
+                if (error == null) {
+                    installMocks(inst, runtimeAdviceClass,
+                            Collections.singletonMap(this, methodsByTargetClass), metrics);
+                }
+            }
+            if (error != null) {
+                process.end(-1, error);
                 return;
             }
 
-            Matcher<String> classNameMatcher = SearchUtils.classNameMatcher(classPattern, isRegEx);
-            Matcher<String> methodNameMatcher = SearchUtils.classNameMatcher(methodPattern, isRegEx);
+            appendCostResult(process, "Mock installed.", metrics);
+            process.end(0, "OK");
+        } catch (Throwable e) {
+            logger.warn("mock failed.", e);
+            process.end(-1, "mock failed, beforeOgnl is: " + this.getBeforeOgnl() + ", afterOgnl is: "
+                    + this.getAfterOgnl() + ", " + e.getMessage() + ", visit " + LogUtil.loggingFile()
+                    + " for more details.");
+        } finally {
+            if (session.getLock() == lock) {
+                session.unLock();
+            }
+        }
+
+    }
 
-            Set<Class<?>> matchingClasses = GlobalOptions.isDisableSubClass
-                    ? SearchUtils.searchClass(inst, classNameMatcher)
-                    : SearchUtils.searchSubClass(inst, SearchUtils.searchClass(inst, classNameMatcher));
+    /**
+     * 各阶段耗时与改写的类数、字节数同时写入结果模型和 Arthas 日志，放大匹配范围前可先据此评估安全点停顿。
+     */
+    private void appendCostResult(CommandProcess process, String message, MockCostMetrics metrics) {
+        String cost = metrics.describe();
+        String target = scenarioFile != null ? "file " + scenarioFile
+                : classPattern == null ? "all" : classPattern + " " + methodPattern;
+        logger.info("{} {}, target: {}", message, cost, target);
+        EnhancerAffect affect = new EnhancerAffect();
+        affect.cCnt(metrics.getClassCount());
+        affect.mCnt(metrics.getMethodCount());
+        process.appendResult(EnhancerModelFactory.create(affect, true, message + " " + cost));
+    }
 
-            if (matchingClasses.isEmpty()) {
-                process.end(-1, "No class matched: " + classPattern);
+    /**
+     * --file 中的每条定义先全部校验、匹配，再一起登记并增强，最后只做一次 retransform。
+     */
+    private void installScenario(CommandProcess process, Instrumentation inst, Class<?> runtimeAdviceClass)
+            throws Throwable {
+        long startNanos = System.nanoTime();
+        List<MockCommand> definitions;
+        try {
+            definitions = loadScenario(Paths.get(scenarioFile));
+        } catch (IOException | RuntimeException e) {
+            process.end(-1, "Invalid --file: " + scenarioFile + ", " + e.getMessage());
+            return;
+        }
+        if (definitions.isEmpty()) {
+            process.end(-1, "No mock defined in " + scenarioFile);
+            return;
+        }
+        MockCostMetrics metrics = new MockCostMetrics();
+        Map<MockCommand, Map<Class<?>, Set<String>>> methodsByCommand = new LinkedHashMap<>();
+        Set<Class<?>> targetClasses = new LinkedHashSet<>();
+        for (int i = 0; i < definitions.size(); i++) {
+            MockCommand definition = definitions.get(i);
+            definition.verbose = verbose;
+            Map<Class<?>, Set<String>> methodsByTargetClass = new LinkedHashMap<>();
+            String error = definition.validateInstallOptions();
+            if (error == null) {
+                error = definition.matchTargetMethods(inst, methodsByTargetClass, metrics);
+            }
+            if (error != null) {
+                process.end(-1, "mock #" + (i + 1) + " in " + scenarioFile + ": " + error);
                 return;
             }
+            methodsByCommand.put(definition, methodsByTargetClass);
+            targetClasses.addAll(methodsByTargetClass.keySet());
+        }
+        installMocks(inst, runtimeAdviceClass, methodsByCommand, metrics);
 
-            EnhancerAffect affect = new EnhancerAffect();
-            List<RetransformEntry> entries = new ArrayList<>();
-            Map<Class<?>, Set<String>> methodsByTargetClass = new LinkedHashMap<>();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        String message = "Installed " + definitions.size() + " mocks (" + metrics.getMethodCount() + " methods in "
+                + targetClasses.size() + " classes) with a single retransform in " + elapsedMillis + " ms.";
+        appendCostResult(process, message, metrics);
+        process.end(0, "OK");
+    }
+
+    /**
+     * 场景文件为 JSON 数组，字段与命令行长选项一致，--export 导出的文件可直接用 --file 导入。
+     */
+    static List<MockCommand> loadScenario(Path path) throws IOException {
+        JSONArray array = JSON.parseArray(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        List<MockCommand> definitions = new ArrayList<>();
+        if (array == null) {
+            return definitions;
+        }
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            MockCommand definition = new MockCommand();
+            definition.setClassPattern(item.getString("class"));
+            definition.setMethodPattern(item.getString("method"));
+            definition.setMethodDescriptor(item.getString("descriptor"));
+            definition.setBeforeOgnl(item.getString("beforeOgnl"));
+            definition.setAfterOgnl(item.getString("afterOgnl"));
+            Object json = item.get("json");
+            // 场景文件里 json 可以直接写成对象，不必再转义成字符串
+            definition.setJsonPayload(json == null || json instanceof String ? (String) json : JSON.toJSONString(json));
+            definition.setConditionExpress(item.getString("condition"));
+            Object returnValue = item.get("return");
+            definition.setReturnValue(returnValue == null || returnValue instanceof String ? (String) returnValue
+                    : JSON.toJSONString(returnValue));
+            definition.setNumberOfLimit(item.getIntValue("limits"));
+            definition.setTtl(item.getString("ttl"));
+            definition.setRatio(item.getDouble("ratio"));
+            definition.setRate(item.getString("rate"));
+            definition.setDelay(item.getString("delay"));
+            definition.setRecordFile(item.getString("record"));
+            definition.setReplayFile(item.getString("replay"));
+            definition.setTableFile(item.getString("table"));
+            definition.setRegEx(item.getBooleanValue("regex"));
+            definitions.add(definition);
+        }
+        return definitions;
+    }
+
+    private String validateInstallOptions() {
+        if (classPattern == null || methodPattern == null) {
+            return "class-pattern and method-pattern are required.";
+        }
+        try {
+            parseDurationMillis(ttl);
+        } catch (IllegalArgumentException e) {
+            return "Invalid --ttl: " + ttl + ", use a duration like 500ms, 30s, 5m or 1h.";
+        }
+        if (ratio != null && !(ratio > 0 && ratio <= 1)) {
+            return "Invalid --ratio: " + ratio + ", expected a value in (0, 1].";
+        }
+        try {
+            parseRatePerSecond(rate);
+        } catch (IllegalArgumentException e) {
+            return "Invalid --rate: " + rate + ", use a positive number of calls per second like 5 or 5/s.";
+        }
+        try {
+            MockDelay.parse(delay);
+        } catch (IllegalArgumentException e) {
+            return "Invalid --delay: " + delay
+                    + ", use a duration like 200ms, uniform(100ms,300ms) or normal(200ms,50ms).";
+        }
+        if (returnValue != null && (!StringUtils.isBlank(beforeOgnl) || !StringUtils.isBlank(afterOgnl)
+                || !StringUtils.isBlank(jsonPayload) || !StringUtils.isBlank(conditionExpress)
+                || !StringUtils.isBlank(delay))) {
+            return "--return cannot be combined with -b/-a/-j/-c/--delay.";
+        }
+        int fileModes = (StringUtils.isBlank(recordFile) ? 0 : 1) + (StringUtils.isBlank(replayFile) ? 0 : 1)
+                + (StringUtils.isBlank(tableFile) ? 0 : 1);
+        if (fileModes > 1) {
+            return "--record, --replay and --table cannot be used together.";
+        }
+        if (fileModes > 0 && (!StringUtils.isBlank(beforeOgnl) || !StringUtils.isBlank(afterOgnl)
+                || !StringUtils.isBlank(jsonPayload) || returnValue != null || !StringUtils.isBlank(delay))) {
+            return "--record/--replay/--table cannot be combined with -b/-a/-j/--return/--delay.";
+        }
+        if (shouldRejectInstallUnderStrictMode()) {
+            return STRICT_DISABLE_HINT;
+        }
+        return null;
+    }
+
+    private String matchTargetMethods(Instrumentation inst, Map<Class<?>, Set<String>> methodsByTargetClass,
+            MockCostMetrics metrics) {
+        Matcher<String> classNameMatcher = SearchUtils.classNameMatcher(classPattern, isRegEx);
+        Matcher<String> methodNameMatcher = SearchUtils.classNameMatcher(methodPattern, isRegEx);
+
+        long searchStart = System.nanoTime();
+        Set<Class<?>> matchingClasses = GlobalOptions.isDisableSubClass
+                ? SearchUtils.searchClass(inst, classNameMatcher)
+                : SearchUtils.searchSubClass(inst, SearchUtils.searchClass(inst, classNameMatcher));
+        metrics.record(MockCostMetrics.SEARCH, searchStart);
+
+        if (matchingClasses.isEmpty()) {
+            return "No class matched: " + classPattern;
+        }
+
+        long matchStart = System.nanoTime();
+        for (Class<?> clazz : matchingClasses) {
+            Class<?> targetClass = resolveEnhanceableClass(clazz);
+            Set<String> matchedMethods = findMatchedMethods(targetClass, methodNameMatcher, methodDescriptor);
+            if (matchedMethods.isEmpty()) {
+                continue;
+            }
+            metrics.addMatchedMethods(matchedMethods.size());
+            methodsByTargetClass.computeIfAbsent(targetClass, key -> new LinkedHashSet<>()).addAll(matchedMethods);
+        }
+        metrics.record(MockCostMetrics.MATCH, matchStart);
+
+        if (methodsByTargetClass.isEmpty()) {
+            return "No method matched: " + methodPattern;
+        }
+        return null;
+    }
 
-            for (Class<?> clazz : matchingClasses) {
-                Class<?> targetClass = resolveEnhanceableClass(clazz);
-                Set<String> matchedMethods = findMatchedMethods(targetClass, methodNameMatcher);
-                if (matchedMethods.isEmpty()) {
+    /**
+     * 先登记全部 mock 配置，再对每个涉及的类按其全部 mockId 增强一次，所有类合并为一次 retransform。
+     * <p>
+     * 方法已带分发桩时登记配置即生效；只有出现尚未增强的方法的类才重新增强，全部命中时不做 retransform。
+     */
+    private void installMocks(Instrumentation inst, Class<?> runtimeAdviceClass,
+            Map<MockCommand, Map<Class<?>, Set<String>>> methodsByCommand, MockCostMetrics metrics) throws Throwable {
+        synchronized (RETRANSFORM_LOCK) {
+            // 先校验全部定义，任何一条出错都不登记，避免场景文件只生效前半部分
+            Set<Class<?>> targetClasses = new LinkedHashSet<>();
+            List<Object> preparedMocks = new ArrayList<>();
+            for (Map.Entry<MockCommand, Map<Class<?>, Set<String>>> commandEntry : methodsByCommand.entrySet()) {
+                for (Map.Entry<Class<?>, Set<String>> entry : commandEntry.getValue().entrySet()) {
+                    prepareRuntimeMocks(runtimeAdviceClass, entry.getKey(), entry.getValue(), commandEntry.getKey(),
+                            preparedMocks);
+                    targetClasses.add(entry.getKey());
+                }
+            }
+            putRuntimeMocks(runtimeAdviceClass, preparedMocks);
+
+            Map<Class<?>, EnhancePlan> mockedMethodsByClass = new LinkedHashMap<>();
+            for (Class<?> targetClass : targetClasses) {
+                EnhancePlan plan = new EnhancePlan(getRuntimeMockedMethodIds(runtimeAdviceClass, targetClass),
+                        getRuntimeReturnValues(runtimeAdviceClass, targetClass));
+                Set<String> enhanced = enhancedMethods.get(targetClass);
+                if (enhanced != null && enhanced.containsAll(plan.enhancementKeys)) {
                     continue;
                 }
-                methodsByTargetClass.computeIfAbsent(targetClass, key -> new LinkedHashSet<>()).addAll(matchedMethods);
+                mockedMethodsByClass.put(targetClass, plan);
+            }
+            if (!mockedMethodsByClass.isEmpty()) {
+                retransformMockedClasses(inst, mockedMethodsByClass, metrics);
             }
+        }
 
-            if (methodsByTargetClass.isEmpty()) {
-                process.end(-1, "No method matched: " + methodPattern);
-                return;
+        for (MockCommand mockCommand : methodsByCommand.keySet()) {
+            if (mockCommand.getNumberOfLimit() > 0) {
+                installExhaustionListener(runtimeAdviceClass);
+            }
+            long ttlMillis = parseDurationMillis(mockCommand.getTtl());
+            if (ttlMillis > 0) {
+                scheduleExpiry(runtimeAdviceClass, ttlMillis);
+            }
+        }
+    }
+
+    /**
+     * 织入在 {@link MockTransformer} 的回调里基于 JVM 当前的字节码完成，安装只触发这一次 retransform。
+     */
+    private void retransformMockedClasses(Instrumentation inst, Map<Class<?>, EnhancePlan> mockedMethodsByClass,
+            MockCostMetrics metrics) throws Throwable {
+        long enhanceStart = System.nanoTime();
+        Map<Class<?>, MockTransformer.Target> targets = prepareTargets(mockedMethodsByClass);
+        metrics.record(MockCostMetrics.ENHANCE, enhanceStart);
+        Map<Class<?>, byte[]> enhancedClasses = MockTransformer.getInstance(inst).retransform(inst, targets,
+                metrics);
+        for (Map.Entry<Class<?>, byte[]> entry : enhancedClasses.entrySet()) {
+            metrics.addRewrittenClass(entry.getValue().length);
+            if (verbose) {
+                logger.info("Enhanced class {} methods {}:\n{}", entry.getKey().getName(),
+                        mockedMethodsByClass.get(entry.getKey()).enhancementKeys,
+                        Decompiler.decompile(entry.getValue()));
             }
+        }
+        for (Map.Entry<Class<?>, EnhancePlan> entry : mockedMethodsByClass.entrySet()) {
+            enhancedMethods.put(entry.getKey(), entry.getValue().enhancementKeys);
+        }
+    }
 
-            for (Map.Entry<Class<?>, Set<String>> entry : methodsByTargetClass.entrySet()) {
-                Class<?> targetClass = entry.getKey();
-                Set<String> matchedMethods = entry.getValue();
-                putRuntimeMocks(runtimeAdviceClass, targetClass, matchedMethods, this);
-                Set<String> allMockedMethods = getRuntimeMockedMethods(runtimeAdviceClass, targetClass);
-                byte[] enhancedBytes = AsmMockEnhancer.enhance(targetClass, allMockedMethods);
+    /**
+     * 多个类时按缓存的上一次回调输入在有界的 ForkJoinPool 上并行预增强（ASM COMPUTE_FRAMES 是逐类独立的 CPU 工作），
+     * retransform 回调里输入一致就直接采用，省下回调中串行的增强。不读 .class 资源：首次增强的类没有缓存，
+     * 资源也未必与 JVM 交给回调的字节码一致，这些类与预增强失败的类一样留给回调按实际输入增强。
+     */
+    private static Map<Class<?>, MockTransformer.Target> prepareTargets(
+            Map<Class<?>, EnhancePlan> mockedMethodsByClass) throws Exception {
+        Map<Class<?>, MockTransformer.Target> targets = new LinkedHashMap<>();
+        if (mockedMethodsByClass.size() <= 1) {
+            for (Map.Entry<Class<?>, EnhancePlan> entry : mockedMethodsByClass.entrySet()) {
+                EnhancePlan plan = entry.getValue();
+                targets.put(entry.getKey(), new MockTransformer.Target(plan.methodIds, plan.returnValues, null, null));
+            }
+            return targets;
+        }
+        List<Callable<MockTransformer.Target>> tasks = new ArrayList<>();
+        for (Map.Entry<Class<?>, EnhancePlan> entry : mockedMethodsByClass.entrySet()) {
+            tasks.add(() -> prepareTarget(entry.getKey(), entry.getValue()));
+        }
+        List<Future<MockTransformer.Target>> futures = EnhancePoolHolder.POOL.invokeAll(tasks);
+        int index = 0;
+        for (Class<?> targetClass : mockedMethodsByClass.keySet()) {
+            targets.put(targetClass, futures.get(index++).get());
+        }
+        return targets;
+    }
 
-                if (verbose) {
-                    logger.info("Enhanced class {} methods {}:\n{}", targetClass.getName(),
-                            allMockedMethods, Decompiler.decompile(enhancedBytes));
-                }
-                if (!mockClass.contains(targetClass)) {
-                    mockClass.add(targetClass);
-                }
-                entries.add(new RetransformEntry(targetClass.getName(),
-                        enhancedBytes,
-                        hashCode, classLoaderClass));
+    /**
+     * 任务内自行处理失败，预增强只是优化，失败时不预增强即可。
+     */
+    private static MockTransformer.Target prepareTarget(Class<?> targetClass, EnhancePlan plan) {
+        byte[] sourceBytes = ClassBytesCache.get(targetClass);
+        if (sourceBytes == null) {
+            return new MockTransformer.Target(plan.methodIds, plan.returnValues, null, null);
+        }
+        try {
+            return new MockTransformer.Target(plan.methodIds, plan.returnValues, sourceBytes,
+                    AsmMockEnhancer.enhance(targetClass, sourceBytes, plan.methodIds, plan.returnValues));
+        } catch (Exception e) {
+            logger.debug("Failed to pre-enhance class {}, enhance it on retransform.", targetClass.getName(), e);
+            return new MockTransformer.Target(plan.methodIds, plan.returnValues, null, null);
+        }
+    }
+
+    /**
+     * 一个类的增强输入：全部槽位与 --return 常量。常量直接写进字节码，值变化时 enhancementKeys 随之变化，需要重新增强。
+     */
+    private static final class EnhancePlan {
+        private final Map<String, Integer> methodIds;
+        private final Map<String, Object> returnValues;
+        private final Set<String> enhancementKeys = new LinkedHashSet<>();
+
+        private EnhancePlan(Map<String, Integer> methodIds, Map<String, Object> returnValues) {
+            this.methodIds = methodIds;
+            this.returnValues = returnValues;
+            for (String methodKey : methodIds.keySet()) {
+                enhancementKeys.add(AsmMockEnhancer.enhancementKey(methodKey, returnValues));
             }
+        }
+    }
 
-            // 注册到 Arthas 全局 retransform 管理器
-            Method method = ReflectUtils.findMethod(
-                    "com.taobao.arthas.core.command.klass100.RetransformCommand.initTransformer()");
-            method.setAccessible(true);
-            method.invoke(null);
-            RetransformCommand.addRetransformEntry(entries);
-            inst.retransformClasses(methodsByTargetClass.keySet().toArray(new Class[0]));
+    /**
+     * 首次批量增强时才创建；并行度不超过 CPU 数且最多 8，避免在业务高峰期占满全部核心。
+     */
+    private static final class EnhancePoolHolder {
+        private static final ForkJoinPool POOL = new ForkJoinPool(
+                Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8)),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("arthas-mock-enhancer-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }, null, false);
+    }
 
-            process.appendResult(EnhancerModelFactory.create(affect, true, "Mock installed."));
-            process.end(0, "OK");
-        } catch (Throwable e) {
-            logger.warn("mock failed.", e);
-            process.end(-1, "mock failed, beforeOgnl is: " + this.getBeforeOgnl() + ", afterOgnl is: "
-                    + this.getAfterOgnl() + ", " + e.getMessage() + ", visit " + LogUtil.loggingFile()
-                    + " for more details.");
-        } finally {
-            if (session.getLock() == lock) {
-                session.unLock();
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> exportRuntimeMocks(Class<?> runtimeAdviceClass)
+            throws ReflectiveOperationException {
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            return OgnlMockAdvice.exportMocks();
+        }
+        Method method = runtimeAdviceClass.getMethod("exportMocks");
+        return (List<Map<String, Object>>) method.invoke(null);
+    }
+
+    /**
+     * 次数用完的回调发生在业务线程上，这里只投递任务，注册表在后台线程清理。
+     */
+    private static void installExhaustionListener(Class<?> runtimeAdviceClass) throws ReflectiveOperationException {
+        Consumer<Class<?>> listener = clazz -> MOCK_SCHEDULER.execute(
+                () -> removeInactiveMocks(runtimeAdviceClass, Collections.singleton(clazz)));
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            OgnlMockAdvice.setExhaustionListener(listener);
+            return;
+        }
+        Method method = runtimeAdviceClass.getMethod("setExhaustionListener", Consumer.class);
+        method.invoke(null, listener);
+    }
+
+    /**
+     * 到期时刻由调度线程触发，一次收集所有已到期的 mock 并从注册表移除。
+     */
+    private static void scheduleExpiry(Class<?> runtimeAdviceClass, long ttlMillis) {
+        MOCK_SCHEDULER.schedule(() -> {
+            try {
+                Set<Class<?>> expiredClasses = expireRuntimeMocks(runtimeAdviceClass);
+                if (!expiredClasses.isEmpty()) {
+                    removeInactiveMocks(runtimeAdviceClass, expiredClasses);
+                }
+            } catch (Throwable e) {
+                logger.warn("Failed to expire mocks.", e);
+            }
+        }, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 移除用完次数或已到期的 mock：只置空分发槽位，方法上的分发桩保留，不触发 retransform。
+     */
+    private static void removeInactiveMocks(Class<?> runtimeAdviceClass, Collection<Class<?>> classes) {
+        for (Class<?> clazz : classes) {
+            try {
+                removeRuntimeExhaustedMocks(runtimeAdviceClass, clazz);
+            } catch (Throwable e) {
+                logger.warn("Failed to remove inactive mocks of class: {}", clazz.getName(), e);
             }
         }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Class<?>> expireRuntimeMocks(Class<?> runtimeAdviceClass) throws ReflectiveOperationException {
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            return OgnlMockAdvice.expireMocks();
+        }
+        Method method = runtimeAdviceClass.getMethod("expireMocks");
+        return (Set<Class<?>>) method.invoke(null);
+    }
 
+    private static boolean removeRuntimeExhaustedMocks(Class<?> runtimeAdviceClass, Class<?> targetClass)
+            throws ReflectiveOperationException {
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            return OgnlMockAdvice.removeExhaustedMocks(targetClass);
+        }
+        Method method = runtimeAdviceClass.getMethod("removeExhaustedMocks", Class.class);
+        return (Boolean) method.invoke(null, targetClass);
     }
 
     @SuppressWarnings("unchecked")
-    private static List<String> describeRuntimeMocks(Class<?> runtimeAdviceClass) throws ReflectiveOperationException {
+    private static List<String> describeRuntimeMocks(Class<?> runtimeAdviceClass, boolean includeStats)
+            throws ReflectiveOperationException {
         if (runtimeAdviceClass == OgnlMockAdvice.class) {
-            return OgnlMockAdvice.describeMocks();
+            return OgnlMockAdvice.describeMocks(includeStats);
+        }
+        Method method = runtimeAdviceClass.getMethod("describeMocks", boolean.class);
+        return (List<String>) method.invoke(null, includeStats);
+    }
+
+    /**
+     * 解析 --ttl，支持 ms/s/m/h 后缀，不带单位按秒计；为空返回 0 表示不限时。
+     */
+    static long parseDurationMillis(String duration) {
+        if (duration == null || duration.trim().isEmpty()) {
+            return 0L;
         }
-        Method method = runtimeAdviceClass.getMethod("describeMocks");
-        return (List<String>) method.invoke(null);
+        String value = duration.trim().toLowerCase(Locale.ROOT);
+        TimeUnit unit = TimeUnit.SECONDS;
+        long multiplier = 1L;
+        if (value.endsWith("ms")) {
+            unit = TimeUnit.MILLISECONDS;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            multiplier = 60L;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            multiplier = 3600L;
+            value = value.substring(0, value.length() - 1);
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + duration, e);
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Duration must be positive: " + duration);
+        }
+        return unit.toMillis(amount * multiplier);
+    }
+
+    /**
+     * 解析 --rate，支持 n、n/s、n/m，统一换算为每秒次数；为空返回 0 表示不限速。
+     */
+    static double parseRatePerSecond(String rate) {
+        if (rate == null || rate.trim().isEmpty()) {
+            return 0.0d;
+        }
+        String value = rate.trim().toLowerCase(Locale.ROOT);
+        double divisor = 1.0d;
+        if (value.endsWith("/s")) {
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("/m")) {
+            divisor = 60.0d;
+            value = value.substring(0, value.length() - 2);
+        }
+        double amount;
+        try {
+            amount = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate: " + rate, e);
+        }
+        if (!(amount > 0) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        return amount / divisor;
     }
 
     private static String formatMockList(List<String> mockLines) {
@@ -409,50 +987,106 @@ public class MockCommand extends AnnotatedCommand {
         }
     }
 
-    private static void putRuntimeMocks(Class<?> runtimeAdviceClass, Class<?> targetClass, Set<String> matchedMethods,
-            MockCommand mockCommand) throws ReflectiveOperationException {
-        for (String methodName : matchedMethods) {
+    private static void prepareRuntimeMocks(Class<?> runtimeAdviceClass, Class<?> targetClass,
+            Set<String> matchedMethods, MockCommand mockCommand, List<Object> preparedMocks)
+            throws ReflectiveOperationException {
+        Map<String, Object> options = mockCommand.toMockOptions();
+        for (String methodKey : matchedMethods) {
+            int descIndex = methodKey.indexOf('(');
+            String methodName = methodKey.substring(0, descIndex);
+            String methodDesc = methodKey.substring(descIndex);
             if (runtimeAdviceClass == OgnlMockAdvice.class) {
-                OgnlMockAdvice.putMockConfig(targetClass, methodName, mockCommand.getBeforeOgnl(),
-                        mockCommand.getAfterOgnl(), mockCommand.getJsonPayload(), GlobalOptions.strict);
+                preparedMocks.add(OgnlMockAdvice.prepareMockConfig(targetClass, methodName, methodDesc, options));
                 continue;
             }
-            Method method = runtimeAdviceClass.getMethod("putMockConfig", Class.class, String.class, String.class,
-                    String.class, String.class, boolean.class);
-            method.invoke(null, targetClass, methodName, mockCommand.getBeforeOgnl(), mockCommand.getAfterOgnl(),
-                    mockCommand.getJsonPayload(), GlobalOptions.strict);
+            Method method = runtimeAdviceClass.getMethod("prepareMockConfig", Class.class, String.class,
+                    String.class, Map.class);
+            preparedMocks.add(method.invoke(null, targetClass, methodName, methodDesc, options));
+        }
+    }
+
+    /**
+     * 命令行参数转成 OgnlMockAdvice 的选项，键为编译期常量，运行时类在系统类加载器里时同样适用。
+     */
+    private Map<String, Object> toMockOptions() {
+        Map<String, Object> options = new HashMap<>();
+        options.put(OgnlMockAdvice.BEFORE_OGNL, getBeforeOgnl());
+        options.put(OgnlMockAdvice.AFTER_OGNL, getAfterOgnl());
+        options.put(OgnlMockAdvice.JSON_PAYLOAD, getJsonPayload());
+        options.put(OgnlMockAdvice.STRICT, GlobalOptions.strict);
+        options.put(OgnlMockAdvice.LIMIT, getNumberOfLimit());
+        options.put(OgnlMockAdvice.TTL_MILLIS, parseDurationMillis(getTtl()));
+        options.put(OgnlMockAdvice.RATIO, getRatio() == null ? 1.0d : getRatio());
+        options.put(OgnlMockAdvice.RATE_PER_SECOND, parseRatePerSecond(getRate()));
+        options.put(OgnlMockAdvice.CONDITION_OGNL, getConditionExpress());
+        options.put(OgnlMockAdvice.RETURN_LITERAL, getReturnValue());
+        options.put(OgnlMockAdvice.DELAY, getDelay());
+        options.put(OgnlMockAdvice.RECORD_FILE, getRecordFile());
+        options.put(OgnlMockAdvice.REPLAY_FILE, getReplayFile());
+        options.put(OgnlMockAdvice.TABLE_FILE, getTableFile());
+        return options;
+    }
+
+    private static void putRuntimeMocks(Class<?> runtimeAdviceClass, List<Object> preparedMocks)
+            throws ReflectiveOperationException {
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            OgnlMockAdvice.putMockConfigs(preparedMocks);
+            return;
         }
+        Method method = runtimeAdviceClass.getMethod("putMockConfigs", List.class);
+        method.invoke(null, preparedMocks);
     }
 
-    private static void removeRuntimeMock(Class<?> runtimeAdviceClass, Class<?> targetClass)
+    /**
+     * @param methodName removeMock 只置空槽位，releaseMock 在类已还原后连同槽位一起回收
+     */
+    private static void removeRuntimeMock(Class<?> runtimeAdviceClass, Class<?> targetClass, String methodName)
             throws ReflectiveOperationException {
         if (runtimeAdviceClass == OgnlMockAdvice.class) {
-            OgnlMockAdvice.removeMock(targetClass);
+            if ("releaseMock".equals(methodName)) {
+                OgnlMockAdvice.releaseMock(targetClass);
+            } else {
+                OgnlMockAdvice.removeMock(targetClass);
+            }
             return;
         }
-        Method method = runtimeAdviceClass.getMethod("removeMock", Class.class);
+        Method method = runtimeAdviceClass.getMethod(methodName, Class.class);
         method.invoke(null, targetClass);
     }
 
-    private static Set<String> getRuntimeMockedMethods(Class<?> runtimeAdviceClass, Class<?> targetClass)
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getRuntimeReturnValues(Class<?> runtimeAdviceClass, Class<?> targetClass)
+            throws ReflectiveOperationException {
+        if (runtimeAdviceClass == OgnlMockAdvice.class) {
+            return OgnlMockAdvice.getReturnValues(targetClass);
+        }
+        Method method = runtimeAdviceClass.getMethod("getReturnValues", Class.class);
+        return (Map<String, Object>) method.invoke(null, targetClass);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Integer> getRuntimeMockedMethodIds(Class<?> runtimeAdviceClass, Class<?> targetClass)
             throws ReflectiveOperationException {
-        String[] mockedMethods;
         if (runtimeAdviceClass == OgnlMockAdvice.class) {
-            mockedMethods = OgnlMockAdvice.getMockedMethods(targetClass);
-        } else {
-            Method method = runtimeAdviceClass.getMethod("getMockedMethods", Class.class);
-            mockedMethods = (String[]) method.invoke(null, targetClass);
+            return OgnlMockAdvice.getMockedMethodIds(targetClass);
         }
-        Set<String> methodNames = new LinkedHashSet<>();
-        Collections.addAll(methodNames, mockedMethods);
-        return methodNames;
+        Method method = runtimeAdviceClass.getMethod("getMockedMethodIds", Class.class);
+        return (Map<String, Integer>) method.invoke(null, targetClass);
     }
 
-    private static Set<String> findMatchedMethods(Class<?> clazz, Matcher<String> methodNameMatcher) {
+    /**
+     * 返回 name+descriptor 形式的方法标识；指定 descriptor 时只保留该重载。
+     */
+    private static Set<String> findMatchedMethods(Class<?> clazz, Matcher<String> methodNameMatcher,
+            String methodDescriptor) {
         Set<String> matchedMethods = new LinkedHashSet<>();
         for (Method method : clazz.getDeclaredMethods()) {
-            if (!method.isBridge() && !method.isSynthetic() && methodNameMatcher.matching(method.getName())) {
-                matchedMethods.add(method.getName());
+            if (method.isBridge() || method.isSynthetic() || !methodNameMatcher.matching(method.getName())) {
+                continue;
+            }
+            String descriptor = OgnlMockAdvice.methodDescriptor(method);
+            if (StringUtils.isBlank(methodDescriptor) || methodDescriptor.trim().equals(descriptor)) {
+                matchedMethods.add(method.getName() + descriptor);
             }
         }
         return matchedMethods;
@@ -467,37 +1101,54 @@ public class MockCommand extends AnnotatedCommand {
                 || !StringUtils.isBlank(jsonPayload);
     }
 
-    private void clearMock(Instrumentation inst) {
+    /**
+     * 只清空注册表，已增强方法上的分发桩保留，再次 mock 同一方法时无需 retransform。
+     */
+    private void clearMock(Instrumentation inst, MockCostMetrics metrics) {
+        long searchStart = System.nanoTime();
         Set<Class<?>> classes = SearchUtils.searchClass(inst, SearchUtils.classNameMatcher(classPattern, isRegEx));
+        metrics.record(MockCostMetrics.SEARCH, searchStart);
         Class<?> runtimeAdviceClass = ensureAdviceClassesVisible(inst);
         for (Class<?> clazz : classes) {
-            restoreMockedClass(inst, runtimeAdviceClass, clazz, "clear");
-            mockClass.remove(clazz);
+            try {
+                removeRuntimeMock(runtimeAdviceClass, clazz, "removeMock");
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Failed to remove runtime mock for class on clear: {}", clazz.getName(), e);
+            }
         }
     }
 
-    private void clearAllMocks(Instrumentation inst) {
+    /**
+     * 撤销 transformer 登记并把全部已增强类合并为一次 retransform 还原为原始字节码，随后回收分发槽位。
+     */
+    private void clearAllMocks(Instrumentation inst, MockCostMetrics metrics) {
         Class<?> runtimeAdviceClass = ensureAdviceClassesVisible(inst);
-        for (Class<?> className : new ArrayList<>(mockClass)) {
-            Set<Class<?>> classes = SearchUtils.searchClass(inst,
-                    SearchUtils.classNameMatcher(className.getName(), false));
+        synchronized (RETRANSFORM_LOCK) {
+            long searchStart = System.nanoTime();
+            Set<Class<?>> classes = new LinkedHashSet<>();
+            for (Class<?> className : enhancedMethods.keySet()) {
+                classes.addAll(SearchUtils.searchClass(inst,
+                        SearchUtils.classNameMatcher(className.getName(), false)));
+            }
+            metrics.record(MockCostMetrics.SEARCH, searchStart);
+            try {
+                if (!classes.isEmpty()) {
+                    long restoreStart = System.nanoTime();
+                    MockTransformer.getInstance(inst).restore(inst, classes);
+                    metrics.record(MockCostMetrics.RESTORE, restoreStart);
+                    metrics.addRewrittenClasses(classes.size());
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to retransform classes on clear-all: {}", classes, e);
+            }
             for (Class<?> clazz : classes) {
-                restoreMockedClass(inst, runtimeAdviceClass, clazz, "clear-all");
+                try {
+                    removeRuntimeMock(runtimeAdviceClass, clazz, "releaseMock");
+                } catch (ReflectiveOperationException e) {
+                    logger.warn("Failed to remove runtime mock for class on clear-all: {}", clazz.getName(), e);
+                }
             }
-            mockClass.remove(className);
-        }
-    }
-
-    private void restoreMockedClass(Instrumentation inst, Class<?> runtimeAdviceClass, Class<?> clazz, String action) {
-        try {
-            inst.retransformClasses(clazz);
-        } catch (Exception e) {
-            logger.warn("Failed to retransform class on {}: {}", action, clazz.getName(), e);
-        }
-        try {
-            removeRuntimeMock(runtimeAdviceClass, clazz);
-        } catch (ReflectiveOperationException e) {
-            logger.warn("Failed to remove runtime mock for class on {}: {}", action, clazz.getName(), e);
+            enhancedMethods.clear();
         }
     }
 
@@ -514,136 +1165,814 @@ public class MockCommand extends AnnotatedCommand {
         private OgnlMockAdvice() {
         }
 
-        private static final String OGNL_STRICT_FIELD_NAME = "_useStricterInvocation";
         private static final JSONReader.Feature[] AUTO_TYPE_FEATURES = new JSONReader.Feature[] {
                 JSONReader.Feature.SupportAutoType
         };
 
-        static Map<Class<?>, Map<String, MockConfig>> mockCommands = new ConcurrentHashMap<>();
-
-        public static void putMockConfig(Class<?> clz, String methodPattern, String beforeOgnl, String afterOgnl,
-                String jsonPayload, boolean strict) {
-            mockCommands.computeIfAbsent(clz, key -> new ConcurrentHashMap<>())
-                    .put(methodPattern, new MockConfig(beforeOgnl, afterOgnl, jsonPayload, strict));
+        /**
+         * 增强代码拿到 Completion 后立即取走返回值/异常，中间不会执行用户代码，因此每个线程复用同一个实例。
+         */
+        private static final ThreadLocal<Completion> COMPLETIONS = ThreadLocal.withInitial(Completion::new);
+
+        private static final Object REGISTRY_LOCK = new Object();
+        private static final MockConfig[] NO_MOCK_CONFIGS = new MockConfig[0];
+
+        /**
+         * 增强后的方法把 mockId 作为常量写进字节码，调用时只做一次数组读取；数组写时复制，安装/清除才会替换。
+         * <p>
+         * mockId 是方法的分发槽位，一旦分配就固定：清除或失效只把槽位置空，字节码原样保留，
+         * 同一方法再次安装直接复用槽位，不需要重新增强；只有 {@link #releaseMock(Class)} 才让槽位离开字节码。
+         * <p>
+         * 回收后的槽位只留给同一个类的同一个方法：还原前已进入旧字节码的调用出口时仍按旧 mockId 取配置，
+         * 槽位若给了别的方法，会用别的方法的表达式和返回值转换处理本次调用。
+         */
+        private static volatile MockConfig[] mockConfigs = NO_MOCK_CONFIGS;
+        private static final Map<Class<?>, Map<String, Integer>> mockMethodIds = new ConcurrentHashMap<>();
+        private static final Map<Class<?>, Map<String, Integer>> releasedMockIds = new ConcurrentHashMap<>();
+        private static int nextMockId;
+
+        /**
+         * mock 达到 -n 次数后在调用线程上回调，参数为被 mock 的类；回调只应投递异步任务。
+         */
+        private static volatile Consumer<Class<?>> exhaustionListener;
+
+        /**
+         * putMockConfig/prepareMockConfig 的选项键。选项以 Map 跨类加载器传递，只用 JDK 类型；未给出的选项取默认值，
+         * 新增 mock 模式只需新增一个键，不改变方法签名。
+         */
+        public static final String BEFORE_OGNL = "beforeOgnl";
+        public static final String AFTER_OGNL = "afterOgnl";
+        public static final String JSON_PAYLOAD = "jsonPayload";
+        /** 默认 true，与 Arthas 的 options strict 默认值一致 */
+        public static final String STRICT = "strict";
+        /** 最多生效的调用次数，默认 0，小于等于 0 表示不限制 */
+        public static final String LIMIT = "limit";
+        public static final String TTL_MILLIS = "ttlMillis";
+        /** 默认 1.0 */
+        public static final String RATIO = "ratio";
+        public static final String RATE_PER_SECOND = "ratePerSecond";
+        public static final String CONDITION_OGNL = "conditionOgnl";
+        /** --return 的字面量或 JSON，安装时按方法返回类型转换一次；不给出表示不是常量返回模式 */
+        public static final String RETURN_LITERAL = "returnLiteral";
+        /** --delay 的分布，在入口、原方法执行或跳过之前延迟 */
+        public static final String DELAY = "delay";
+        /** --record 的文件，在出口记录原方法的真实结果 */
+        public static final String RECORD_FILE = "recordFile";
+        /** --replay 的文件，在入口按参数查找录制的结果，未录到时执行原方法 */
+        public static final String REPLAY_FILE = "replayFile";
+        /** --table 的响应表，只解析一次，再按每个匹配方法的签名建立索引 */
+        public static final String TABLE_FILE = "tableFile";
+
+        private static final Set<String> OPTION_KEYS = new HashSet<>(Arrays.asList(BEFORE_OGNL, AFTER_OGNL,
+                JSON_PAYLOAD, STRICT, LIMIT, TTL_MILLIS, RATIO, RATE_PER_SECOND, CONDITION_OGNL, RETURN_LITERAL,
+                DELAY, RECORD_FILE, REPLAY_FILE, TABLE_FILE));
+
+        /**
+         * @param options 以本类的选项键为键，见 {@link #BEFORE_OGNL} 等常量
+         */
+        public static void putMockConfig(Class<?> clz, String methodName, String methodDesc, Map<String, ?> options) {
+            putMockConfigs(Collections.singletonList(prepareMockConfig(clz, methodName, methodDesc, options)));
         }
 
-        public static void removeMock(Class<?> clz) {
-            mockCommands.remove(clz);
+        /**
+         * 解析、校验一条配置（OGNL、--return、--delay、--table、--replay）但不登记，参数同 putMockConfig；
+         * 返回值只用于传给 {@link #putMockConfigs(List)}。批量安装先准备全部配置，任何一条出错都不会留下已登记的半批配置。
+         */
+        public static Object prepareMockConfig(Class<?> clz, String methodName, String methodDesc,
+                Map<String, ?> options) {
+            for (String key : options.keySet()) {
+                if (!OPTION_KEYS.contains(key)) {
+                    throw new IllegalArgumentException("Unknown mock option: " + key);
+                }
+            }
+            String beforeOgnl = stringOption(options, BEFORE_OGNL);
+            String afterOgnl = stringOption(options, AFTER_OGNL);
+            String jsonPayload = stringOption(options, JSON_PAYLOAD);
+            boolean strict = !Boolean.FALSE.equals(option(options, STRICT, Boolean.class));
+            int limit = numberOption(options, LIMIT, 0).intValue();
+            long ttlMillis = numberOption(options, TTL_MILLIS, 0L).longValue();
+            double ratio = numberOption(options, RATIO, 1.0d).doubleValue();
+            double ratePerSecond = numberOption(options, RATE_PER_SECOND, 0.0d).doubleValue();
+            String conditionOgnl = stringOption(options, CONDITION_OGNL);
+            String returnLiteral = stringOption(options, RETURN_LITERAL);
+            String recordFile = stringOption(options, RECORD_FILE);
+            String tableFile = stringOption(options, TABLE_FILE);
+            MockDelay delay = MockDelay.parse(stringOption(options, DELAY));
+            MockReplayIndex replay = openReplay(stringOption(options, REPLAY_FILE));
+            MockTable table = tableFile == null || tableFile.trim().isEmpty() ? null
+                    : MockTable.read(Paths.get(tableFile.trim()));
+            long deadlineNanos = ttlMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0L;
+            List<MockConfig> newConfigs = new ArrayList<>();
+            for (MockMethod mockMethod : resolveMockMethods(clz, methodName, methodDesc)) {
+                // 每个方法单独限速，同名重载不共享配额
+                newConfigs.add(new MockConfig(clz, mockMethod, beforeOgnl, afterOgnl, jsonPayload, strict, limit,
+                        deadlineNanos, MockThrottle.of(ratio, ratePerSecond), conditionOgnl, returnLiteral, delay,
+                        replay, table));
+            }
+            return new PreparedMocks(newConfigs, recordFile == null || recordFile.trim().isEmpty() ? null
+                    : Paths.get(recordFile.trim()).toAbsolutePath().normalize());
         }
 
-        public static String[] getMockedMethods(Class<?> clz) {
-            Map<String, MockConfig> methodMocks = mockCommands.get(clz);
-            if (methodMocks == null || methodMocks.isEmpty()) {
-                return new String[0];
-            }
-            return methodMocks.keySet().toArray(new String[0]);
+        private static String stringOption(Map<String, ?> options, String key) {
+            return option(options, key, String.class);
         }
 
-        public static List<String> describeMocks() {
-            List<String> lines = new ArrayList<>();
-            for (Map.Entry<Class<?>, Map<String, MockConfig>> classEntry : mockCommands.entrySet()) {
-                String className = classEntry.getKey().getName();
-                for (Map.Entry<String, MockConfig> methodEntry : classEntry.getValue().entrySet()) {
-                    MockConfig config = methodEntry.getValue();
-                    lines.add(className + "#" + methodEntry.getKey()
-                            + " [before=" + config.getBeforeOgnl()
-                            + ", after=" + config.getAfterOgnl()
-                            + ", json=" + config.getJsonPayload()
-                            + ", strict=" + config.isStrict() + "]");
-                }
-            }
-            Collections.sort(lines);
-            return lines;
+        private static Number numberOption(Map<String, ?> options, String key, Number defaultValue) {
+            Number value = option(options, key, Number.class);
+            return value == null ? defaultValue : value;
         }
 
-        public static boolean isSkipped(OgnlContext ognlContext) {
-            return ognlContext != null && Boolean.TRUE.equals(ognlContext.skip);
+        private static <T> T option(Map<String, ?> options, String key, Class<T> type) {
+            Object value = options.get(key);
+            if (value != null && !type.isInstance(value)) {
+                throw new IllegalArgumentException("Mock option " + key + " must be a " + type.getSimpleName()
+                        + ": " + value);
+            }
+            return type.cast(value);
         }
 
-        public static Completion complete(OgnlContext ognlContext, Class<?> clazz, Object returned, Throwable thrown) {
-            if (ognlContext == null) {
-                return new Completion(returned, thrown);
+        /**
+         * 一次登记 {@link #prepareMockConfig} 准备好的全部配置。录制文件在这里才打开（会清空文件），
+         * 前面任何一步失败都不会清空已有文件；打开失败时整批都不登记。
+         */
+        public static void putMockConfigs(List<?> preparedMocks) {
+            List<MockConfig> newConfigs = new ArrayList<>();
+            for (Object item : preparedMocks) {
+                newConfigs.addAll(((PreparedMocks) item).configs);
+            }
+            synchronized (REGISTRY_LOCK) {
+                Map<Path, MockRecorder> recorders = new HashMap<>();
+                try {
+                    for (Object item : preparedMocks) {
+                        PreparedMocks prepared = (PreparedMocks) item;
+                        if (prepared.recordPath == null) {
+                            continue;
+                        }
+                        MockRecorder recorder = recorders.get(prepared.recordPath);
+                        if (recorder == null) {
+                            recorder = openRecorder(prepared.recordPath, newConfigs);
+                            recorders.put(prepared.recordPath, recorder);
+                        }
+                        for (MockConfig mockConfig : prepared.configs) {
+                            mockConfig.setRecorder(recorder);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    releaseUnusedFiles();
+                    throw e;
+                }
+                MockConfig[] configs = mockConfigs;
+                for (MockConfig mockConfig : newConfigs) {
+                    Map<String, Integer> methodIds = mockMethodIds.computeIfAbsent(mockConfig.getClazz(),
+                            key -> new ConcurrentHashMap<>());
+                    Integer mockId = methodIds.get(mockConfig.getMethodKey());
+                    if (mockId == null) {
+                        Map<String, Integer> releasedIds = releasedMockIds.get(mockConfig.getClazz());
+                        mockId = releasedIds == null ? null : releasedIds.remove(mockConfig.getMethodKey());
+                        if (mockId == null) {
+                            mockId = nextMockId++;
+                        }
+                        methodIds.put(mockConfig.getMethodKey(), mockId);
+                    }
+                    if (mockId >= configs.length) {
+                        configs = Arrays.copyOf(configs, Math.max(nextMockId, configs.length * 2));
+                    } else if (configs == mockConfigs) {
+                        configs = configs.clone();
+                    }
+                    if (configs[mockId] != null) {
+                        // 同一方法重新安装时沿用已有统计，直到 --clear 才清零
+                        mockConfig.inheritStats(configs[mockId]);
+                    }
+                    configs[mockId] = mockConfig;
+                }
+                mockConfigs = configs;
+                releaseUnusedFiles();
             }
+        }
 
-            ognlContext.setOriginReturnObj(returned);
-            if (!Boolean.TRUE.equals(ognlContext.skip)) {
-                ognlContext.setReturnObj(returned);
+        private static MockReplayIndex openReplay(String replayFile) {
+            if (replayFile == null || replayFile.trim().isEmpty()) {
+                return null;
             }
-            ognlContext.setThrowExp(thrown);
+            Path path = Paths.get(replayFile.trim()).toAbsolutePath().normalize();
+            // 正在录制的文件随时会被追加和截断，映射后读取可能直接导致 JVM 崩溃
+            MockRecorder.awaitNotRecording(path);
+            return MockReplayIndex.open(path);
+        }
 
-            OgnlMockAdvice.invoke(ognlContext, clazz, null, null, true);
+        /**
+         * 在 REGISTRY_LOCK 内调用；同一批里尚未登记的配置引用的文件同样算作占用。
+         */
+        private static MockRecorder openRecorder(Path path, List<MockConfig> pendingConfigs) {
+            releaseUnusedFiles(pendingConfigs);
+            // 打开时会清空文件，不能截断仍被 --replay 映射的文件
+            if (MockReplayIndex.isLoaded(path)) {
+                throw new IllegalArgumentException(
+                        "Record file is being replayed, clear the replay mock first: " + path);
+            }
+            return MockRecorder.open(path);
+        }
 
-            Object finalReturn = returned;
-            Throwable finalThrowable = thrown;
-            if (!Optional.empty().equals(ognlContext.returnObj)) {
-                finalReturn = ognlContext.returnObj;
-                finalThrowable = null;
-            }
-            if (ognlContext.getThrowExp() != null) {
-                finalThrowable = ognlContext.getThrowExp();
-            }
-            return new Completion(finalReturn, finalThrowable);
+        private static void releaseUnusedFiles() {
+            releaseUnusedFiles(Collections.emptyList());
         }
 
-        public static OgnlContext invoke(Object target,
-                Class<?> clazz,
-                String methodName,
-                Object[] args,
-                boolean isAfter) {
-            MockConfig mockConfig = getMockCommand(clazz, methodName);
-            if (isAfter && target instanceof OgnlContext) {
-                OgnlContext existingContext = (OgnlContext) target;
-                if (clazz == null) {
-                    clazz = existingContext.getClazz();
+        /**
+         * 在 REGISTRY_LOCK 内调用：关闭不再被任何槽位或待登记配置引用的录制文件，释放不再被引用的回放索引。
+         */
+        private static void releaseUnusedFiles(List<MockConfig> pendingConfigs) {
+            Set<MockRecorder> recorders = new HashSet<>();
+            Set<MockReplayIndex> replays = new HashSet<>();
+            List<MockConfig> configs = new ArrayList<>(Arrays.asList(mockConfigs));
+            configs.addAll(pendingConfigs);
+            for (MockConfig config : configs) {
+                if (config == null) {
+                    continue;
                 }
-                if (methodName == null && existingContext.getMethod() != null) {
-                    methodName = existingContext.getMethod().getName();
+                if (config.getRecorder() != null) {
+                    recorders.add(config.getRecorder());
+                }
+                if (config.getReplay() != null) {
+                    replays.add(config.getReplay());
                 }
-                mockConfig = getMockCommand(clazz, methodName);
             }
-            if (mockConfig == null) {
+            MockRecorder.closeUnused(recorders);
+            MockReplayIndex.releaseUnused(replays);
+        }
+
+        /**
+         * 置空类上全部槽位，增强字节码保留，之后的调用走原始逻辑。
+         */
+        public static void removeMock(Class<?> clz) {
+            synchronized (REGISTRY_LOCK) {
+                Map<String, Integer> methodIds = mockMethodIds.get(clz);
+                if (methodIds != null) {
+                    MockConfig[] configs = mockConfigs.clone();
+                    for (Integer mockId : methodIds.values()) {
+                        configs[mockId] = null;
+                    }
+                    mockConfigs = configs;
+                }
+                releaseUnusedFiles();
+            }
+        }
+
+        /**
+         * 类已还原为原始字节码后调用，槽位离开字节码；下次安装会重新增强，同一方法沿用原来的槽位，数组不随清除次数增长。
+         */
+        public static void releaseMock(Class<?> clz) {
+            synchronized (REGISTRY_LOCK) {
+                removeMock(clz);
+                Map<String, Integer> methodIds = mockMethodIds.remove(clz);
+                if (methodIds != null) {
+                    releasedMockIds.computeIfAbsent(clz, key -> new ConcurrentHashMap<>()).putAll(methodIds);
+                }
+            }
+        }
+
+        public static void setExhaustionListener(Consumer<Class<?>> listener) {
+            exhaustionListener = listener;
+        }
+
+        /**
+         * 把已到期的 mock 置为失效，返回涉及的类；调用方随后用 {@link #removeExhaustedMocks(Class)} 从槽位上移除。
+         */
+        public static Set<Class<?>> expireMocks() {
+            long now = System.nanoTime();
+            Set<Class<?>> expiredClasses = new LinkedHashSet<>();
+            for (MockConfig config : mockConfigs) {
+                if (config != null && config.isActive() && config.isExpired(now)) {
+                    config.expire();
+                    expiredClasses.add(config.getClazz());
+                }
+            }
+            return expiredClasses;
+        }
+
+        /**
+         * 把已用完次数或已到期的 mock 从槽位上移除，返回是否有移除；槽位与增强字节码保留，不需要 retransform。
+         */
+        public static boolean removeExhaustedMocks(Class<?> clz) {
+            synchronized (REGISTRY_LOCK) {
+                Map<String, Integer> methodIds = mockMethodIds.get(clz);
+                if (methodIds == null) {
+                    return false;
+                }
+                MockConfig[] configs = null;
+                for (Integer mockId : methodIds.values()) {
+                    MockConfig config = mockConfigs[mockId];
+                    if (config == null || config.isActive()) {
+                        continue;
+                    }
+                    if (configs == null) {
+                        configs = mockConfigs.clone();
+                    }
+                    configs[mockId] = null;
+                }
+                if (configs == null) {
+                    return false;
+                }
+                mockConfigs = configs;
+                releaseUnusedFiles();
+                return true;
+            }
+        }
+
+        /**
+         * 返回类上处于常量返回模式的方法及其返回值（已按返回类型转换），供增强时内联；值可能为 null。
+         */
+        public static Map<String, Object> getReturnValues(Class<?> clz) {
+            Map<String, Integer> methodIds = mockMethodIds.get(clz);
+            if (methodIds == null || methodIds.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            Map<String, Object> returnValues = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : methodIds.entrySet()) {
+                MockConfig config = getMockConfig(entry.getValue());
+                if (config != null && config.getReturnLiteral() != null) {
+                    returnValues.put(entry.getKey(), config.getReturnValue());
+                }
+            }
+            return returnValues;
+        }
+
+        /**
+         * 返回类上已分配的全部槽位（含已清除的），即增强字节码中应当包含的方法。
+         */
+        public static Map<String, Integer> getMockedMethodIds(Class<?> clz) {
+            Map<String, Integer> methodIds = mockMethodIds.get(clz);
+            if (methodIds == null || methodIds.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            return new LinkedHashMap<>(methodIds);
+        }
+
+        public static List<String> describeMocks(boolean includeStats) {
+            long now = System.nanoTime();
+            List<String> lines = new ArrayList<>();
+            for (MockConfig config : mockConfigs) {
+                if (config == null) {
+                    continue;
+                }
+                String line = config.getClazz().getName() + "#" + config.getMethodKey()
+                        + " [" + (config.getConditionExpression() == null ? ""
+                                : "condition=" + config.getConditionExpression().getExpress() + ", ")
+                        + "before=" + config.getBeforeOgnl()
+                        + ", after=" + config.getAfterOgnl()
+                        + ", json=" + config.getJsonPayload()
+                        + (config.getReturnLiteral() == null ? "" : ", return=" + config.getReturnLiteral())
+                        + (config.getDelay() == null ? "" : ", delay=" + config.getDelay().describe())
+                        + (config.getRecorder() == null ? "" : ", record=" + config.getRecorder().describe())
+                        + (config.getReplay() == null ? "" : ", replay=" + config.getReplay().describe())
+                        + (config.getTable() == null ? "" : ", table=" + config.getTable().describe())
+                        + ", strict=" + config.isStrict()
+                        + (config.getRemaining() < 0 ? "" : ", remaining=" + config.getRemaining())
+                        + (config.getTtlMillis(now) < 0 ? "" : ", ttl=" + config.getTtlMillis(now) + "ms")
+                        + (config.getThrottle() == null ? "" : config.getThrottle().describe()) + "]";
+                if (includeStats) {
+                    line += "\n    " + config.getStats().describe();
+                }
+                lines.add(line);
+            }
+            Collections.sort(lines);
+            return lines;
+        }
+
+        /**
+         * 按 --file 场景文件的格式导出当前生效的 mock，剩余次数与剩余时长按导出时刻计算；只使用 JDK 类型以便跨类加载器调用。
+         */
+        public static List<Map<String, Object>> exportMocks() {
+            long now = System.nanoTime();
+            List<Map<String, Object>> definitions = new ArrayList<>();
+            for (MockConfig config : mockConfigs) {
+                if (config == null || !config.isActive()) {
+                    continue;
+                }
+                Map<String, Object> definition = new LinkedHashMap<>();
+                definition.put("class", config.getClazz().getName());
+                definition.put("method", config.getMockMethod().getArthasMethod().getName());
+                definition.put("descriptor", config.getMockMethod().getMethodDesc());
+                definition.put("beforeOgnl", config.getBeforeOgnl());
+                definition.put("afterOgnl", config.getAfterOgnl());
+                definition.put("json", config.getJsonPayload());
+                if (config.getReturnLiteral() != null) {
+                    definition.put("return", config.getReturnLiteral());
+                }
+                if (config.getDelay() != null) {
+                    definition.put("delay", config.getDelay().describe());
+                }
+                if (config.getRecorder() != null) {
+                    definition.put("record", config.getRecorder().getPath().toString());
+                }
+                if (config.getReplay() != null) {
+                    definition.put("replay", config.getReplay().getPath().toString());
+                }
+                if (config.getTable() != null) {
+                    definition.put("table", config.getTable().getPath().toString());
+                }
+                if (config.getConditionExpression() != null) {
+                    definition.put("condition", config.getConditionExpression().getExpress());
+                }
+                if (config.getRemaining() > 0) {
+                    definition.put("limits", config.getRemaining());
+                }
+                if (config.getTtlMillis(now) >= 0) {
+                    definition.put("ttl", Math.max(1L, config.getTtlMillis(now)) + "ms");
+                }
+                MockThrottle throttle = config.getThrottle();
+                if (throttle != null && throttle.getRatio() < 1.0d) {
+                    definition.put("ratio", throttle.getRatio());
+                }
+                if (throttle != null && throttle.getRatePerSecond() > 0) {
+                    definition.put("rate", String.valueOf(throttle.getRatePerSecond()));
+                }
+                definitions.add(definition);
+            }
+            definitions.sort((left, right) -> (left.get("class") + "#" + left.get("method") + left.get("descriptor"))
+                    .compareTo(right.get("class") + "#" + right.get("method") + right.get("descriptor")));
+            return definitions;
+        }
+
+        /**
+         * 增强代码在装箱参数、创建上下文之前先调用；mock 被清除后槽位置空，旧字节码随即退化为透传。
+         * <p>
+         * isAfter 为 true 时判断出口动作（--record），同样在入口调用，选中后由 recordKey 按原始参数算出录制键。
+         * --ratio/--rate 每次调用只判断一次，都在入口决定。
+         * 没有 -c、--replay、--table 时直接在这里判断，未被选中的调用不装箱参数；否则留到条件命中、查到结果之后再判断，
+         * 未命中的调用不消耗配额。
+         */
+        public static boolean isActive(int mockId, boolean isAfter) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            if (mockConfig == null || !mockConfig.isActive()) {
+                return false;
+            }
+            if (isAfter == mockConfig.isEntryPhase()) {
+                return false;
+            }
+            if (!isAfter && !mockConfig.hasEntryAction()) {
+                return false;
+            }
+            return mockConfig.isThrottledAfterMatch() || tryPass(mockConfig);
+        }
+
+        private static boolean tryPass(MockConfig mockConfig) {
+            MockThrottle throttle = mockConfig.getThrottle();
+            return throttle == null || throttle.tryPass();
+        }
+
+        /**
+         * 常量返回模式的入口判断：槽位仍是常量返回且本次调用被选中时，增强代码直接返回内联的常量，不创建上下文。
+         */
+        public static boolean isReturnActive(int mockId) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            if (mockConfig == null || mockConfig.getReturnLiteral() == null || !mockConfig.isActive()) {
+                return false;
+            }
+            if (!tryPass(mockConfig) || !mockConfig.tryAcquire()) {
+                return false;
+            }
+            mockConfig.getStats().recordInvocation();
+            return true;
+        }
+
+        /**
+         * 无法内联为常量的对象返回值从这里读取，每次调用返回同一个实例。
+         */
+        public static Object getReturnValue(int mockId) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            return mockConfig == null ? null : mockConfig.getReturnValue();
+        }
+
+        public static boolean isSkipped(OgnlContext ognlContext) {
+            return ognlContext != null && Boolean.TRUE.equals(ognlContext.skip);
+        }
+
+        /**
+         * --record 在入口被选中时调用：-c 条件与录制键都基于入口处的原始参数，方法体里改写或修改参数不影响录制结果，
+         * 与回放时按入口参数查找的键一致。条件未命中或参数无法序列化时返回 null，出口直接透传。
+         */
+        public static Long recordKey(Object target, int mockId, Object[] args) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            if (mockConfig == null || mockConfig.getRecorder() == null || !isConditionMet(mockConfig, target, args)
+                    || (mockConfig.isThrottledAfterMatch() && !tryPass(mockConfig))) {
                 return null;
             }
+            try {
+                return MockRecorder.key(mockConfig.getMethodId(), args);
+            } catch (RuntimeException e) {
+                mockConfig.getStats().recordFailure();
+                logger.debug("Failed to record mock result: {}", mockConfig.getMethodId(), e);
+                return null;
+            }
+        }
+
+        public static Completion complete(OgnlContext ognlContext, int mockId, Long recordKey, Object returned,
+                Throwable thrown) {
+            if (ognlContext == null) {
+                // 入口未创建上下文：--record 在入口已被选中并算出录制键，原方法已正常执行
+                MockConfig mockConfig = getMockConfig(mockId);
+                if (recordKey != null && mockConfig != null && mockConfig.getRecorder() != null
+                        && mockConfig.tryAcquire()) {
+                    recordResult(mockConfig, recordKey, returned, thrown);
+                    mockConfig.getStats().recordInvocation();
+                }
+                return completion(returned, thrown);
+            }
+
+            ognlContext.setOriginReturnObj(returned);
+            // 入口已跳过原方法时保留 before 设置的 returnObj/throwExp，原方法执行过才用实际结果覆盖
+            if (!Boolean.TRUE.equals(ognlContext.skip)) {
+                ognlContext.resetReturnObj(returned);
+                ognlContext.setThrowExp(thrown);
+            }
+
+            OgnlMockAdvice.invoke(ognlContext, mockId, null, true);
+
+            Object finalReturn = returned;
+            Throwable finalThrowable = thrown;
+            if (ognlContext.isReturnObjAssigned() || !Optional.empty().equals(ognlContext.returnObj)) {
+                finalReturn = Optional.empty().equals(ognlContext.returnObj) ? null : ognlContext.returnObj;
+                finalThrowable = null;
+            }
+            if (ognlContext.getThrowExp() != null) {
+                finalThrowable = ognlContext.getThrowExp();
+            }
+            return completion(finalReturn, finalThrowable);
+        }
+
+        /*
+         * 基本类型返回值的出口：after 表达式未生效时原值直接返回，不装箱也不经过 Completion；
+         * 表达式设置的异常在这里直接抛出。
+         */
+
+        public static boolean completeBoolean(OgnlContext ognlContext, int mockId, Long recordKey,
+                boolean returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return (Boolean) completeReturnValue(ognlContext, mockId, recordKey, returned);
+        }
+
+        public static byte completeByte(OgnlContext ognlContext, int mockId, Long recordKey,
+                byte returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).byteValue();
+        }
+
+        public static char completeChar(OgnlContext ognlContext, int mockId, Long recordKey,
+                char returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return (Character) completeReturnValue(ognlContext, mockId, recordKey, returned);
+        }
+
+        public static short completeShort(OgnlContext ognlContext, int mockId, Long recordKey,
+                short returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).shortValue();
+        }
+
+        public static int completeInt(OgnlContext ognlContext, int mockId, Long recordKey,
+                int returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).intValue();
+        }
+
+        public static long completeLong(OgnlContext ognlContext, int mockId, Long recordKey,
+                long returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).longValue();
+        }
+
+        public static float completeFloat(OgnlContext ognlContext, int mockId, Long recordKey,
+                float returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).floatValue();
+        }
+
+        public static double completeDouble(OgnlContext ognlContext, int mockId, Long recordKey,
+                double returned) {
+            if (!needsCompletion(ognlContext, mockId)) {
+                return returned;
+            }
+            return ((Number) completeReturnValue(ognlContext, mockId, recordKey, returned)).doubleValue();
+        }
+
+        /**
+         * 入口已创建上下文或算出录制键才会调用到这里，不再重复做 --ratio/--rate 的放行判断；
+         * 入口已创建上下文时本次调用已计入次数，after 表达式照常执行。
+         */
+        private static boolean needsCompletion(OgnlContext ognlContext, int mockId) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            if (mockConfig == null || !mockConfig.hasExitAction()) {
+                return false;
+            }
+            return ognlContext != null || mockConfig.isActive();
+        }
+
+        private static Object completeReturnValue(OgnlContext ognlContext, int mockId, Long recordKey,
+                Object returned) {
+            Completion completion = complete(ognlContext, mockId, recordKey, returned, null);
+            Throwable throwable = completion.takeThrowable();
+            if (throwable != null) {
+                throw OgnlMockAdvice.<RuntimeException>sneakyThrow(throwable);
+            }
+            return completion.takeReturnValue();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T extends Throwable> RuntimeException sneakyThrow(Throwable throwable) throws T {
+            throw (T) throwable;
+        }
+
+        private static Completion completion(Object returnValue, Throwable throwable) {
+            Completion completion = COMPLETIONS.get();
+            completion.returnValue = returnValue;
+            completion.throwable = throwable;
+            return completion;
+        }
+
+        public static OgnlContext invoke(Object target,
+                int mockId,
+                Object[] args,
+                boolean isAfter) {
+            MockConfig mockConfig = getMockConfig(mockId);
+            if (mockConfig == null) {
+                return null;
+            }
+            Class<?> clazz = mockConfig.getClazz();
+            MockMethod mockMethod = mockConfig.getMockMethod();
 
             OgnlContext ognlContext;
-            String express;
+            MockExpression expression;
             if (isAfter) {
                 ognlContext = (OgnlContext) target;
-                if (mockConfig.getAfterOgnl() == null) {
+                if (mockConfig.getAfterExpression() == null) {
                     return ognlContext;
                 }
-                express = mockConfig.getAfterOgnl();
+                expression = mockConfig.getAfterExpression();
             } else {
-                ognlContext = OgnlContext.init(clazz.getClassLoader(), clazz, resolveArthasMethod(clazz, methodName),
+                expression = mockConfig.getBeforeExpression();
+                if (!mockConfig.isEntryPhase() || !mockConfig.hasEntryAction()
+                        || !isConditionMet(mockConfig, target, args)) {
+                    return null;
+                }
+                // 未录到、响应表未命中的参数直接走原方法，不计入次数
+                MockReplayIndex.Recorded recorded = null;
+                MockTable.Row row = null;
+                if (mockConfig.getReplay() != null) {
+                    recorded = lookupReplay(mockConfig, args);
+                    if (recorded == null) {
+                        return null;
+                    }
+                } else if (mockConfig.getTable() != null) {
+                    row = lookupTable(mockConfig, args);
+                    if (row == null) {
+                        return null;
+                    }
+                }
+                if ((mockConfig.isThrottledAfterMatch() && !tryPass(mockConfig)) || !mockConfig.tryAcquire()) {
+                    return null;
+                }
+                mockConfig.getStats().recordInvocation();
+                awaitDelay(mockConfig);
+                if (recorded != null) {
+                    return resultContext(mockConfig, target, args, recorded.getReturnValue(),
+                            recorded.getThrowable());
+                }
+                if (row != null) {
+                    return resultContext(mockConfig, target, args, row.getReturnValue(), row.newThrowable());
+                }
+                if (expression == null && mockConfig.getAfterExpression() == null) {
+                    return null;
+                }
+                // 只配置 after 时同样在入口创建上下文，skip 默认为 true，原方法被跳过，返回值由 after 决定
+                ognlContext = OgnlContext.init(clazz.getClassLoader(), clazz, mockMethod.getArthasMethod(),
                         target, args, null);
-                if (mockConfig.getBeforeOgnl() == null) {
-                    return ognlContext;
+            }
+
+            MockStats stats = mockConfig.getStats();
+            if (expression != null) {
+                long startNanos = System.nanoTime();
+                try {
+                    bindJsonArgumentIfNecessary(ognlContext, mockMethod, mockConfig, isAfter);
+                    getExpressionResult(expression, ognlContext, mockConfig.isStrict());
+                } catch (Throwable e) {
+                    stats.recordFailure();
+                    throw MockCommand.propagateMockException(e);
+                } finally {
+                    stats.recordEvaluation(System.nanoTime() - startNanos);
                 }
-                express = mockConfig.getBeforeOgnl();
             }
 
-            express = normalizeJsonAlias(express);
+            if (!isAfter && Boolean.TRUE.equals(ognlContext.skip)) {
+                stats.recordSkip();
+            }
+            return ognlContext;
+        }
+
+        /**
+         * 参数或返回值无法序列化时只计入失败数，不影响业务调用。
+         */
+        private static void recordResult(MockConfig mockConfig, long recordKey, Object returned, Throwable thrown) {
             try {
-                bindJsonArgumentIfNecessary(ognlContext, clazz, methodName, mockConfig, isAfter);
-                getExpressionResult(express, ognlContext, mockConfig.isStrict());
-            } catch (Throwable e) {
-                throw MockCommand.propagateMockException(e);
+                mockConfig.getRecorder().record(recordKey, returned, thrown);
+            } catch (RuntimeException e) {
+                mockConfig.getStats().recordFailure();
+                logger.debug("Failed to record mock result: {}", mockConfig.getMethodId(), e);
             }
+        }
 
+        private static MockReplayIndex.Recorded lookupReplay(MockConfig mockConfig, Object[] args) {
+            try {
+                return mockConfig.getReplay().lookup(MockRecorder.key(mockConfig.getMethodId(), args),
+                        mockConfig.getMockMethod().getMethod().getGenericReturnType(),
+                        mockConfig.getClazz().getClassLoader());
+            } catch (RuntimeException e) {
+                mockConfig.getStats().recordFailure();
+                logger.debug("Failed to replay mock result: {}", mockConfig.getMethodId(), e);
+                return null;
+            }
+        }
+
+        private static MockTable.Row lookupTable(MockConfig mockConfig, Object[] args) {
+            try {
+                return mockConfig.getTable().lookup(args);
+            } catch (RuntimeException e) {
+                mockConfig.getStats().recordFailure();
+                logger.debug("Failed to look up mock table: {}", mockConfig.getMethodId(), e);
+                return null;
+            }
+        }
+
+        /**
+         * 回放或响应表命中时跳过原方法，查到的返回值或异常作为本次调用的结果。
+         */
+        private static OgnlContext resultContext(MockConfig mockConfig, Object target, Object[] args,
+                Object returnValue, Throwable throwable) {
+            Class<?> clazz = mockConfig.getClazz();
+            OgnlContext ognlContext = OgnlContext.init(clazz.getClassLoader(), clazz,
+                    mockConfig.getMockMethod().getArthasMethod(), target, args, null);
+            if (throwable != null) {
+                ognlContext.setThrowExp(throwable);
+            } else {
+                ognlContext.setReturnObj(returnValue);
+            }
+            mockConfig.getStats().recordSkip();
             return ognlContext;
         }
 
+        private static void awaitDelay(MockConfig mockConfig) {
+            MockDelay delay = mockConfig.getDelay();
+            if (delay != null) {
+                delay.await();
+            }
+        }
+
+        /**
+         * -c 条件在创建 OgnlContext 之前直接对参数数组求值；未命中的调用不计入次数，也不会执行 after。
+         * 条件求值出错按未命中处理并计入失败数，不影响业务调用。
+         */
+        private static boolean isConditionMet(MockConfig mockConfig, Object target, Object[] args) {
+            MockExpression condition = mockConfig.getConditionExpression();
+            if (condition == null) {
+                return true;
+            }
+            try {
+                return condition.test(target, args, mockConfig.getClazz().getClassLoader());
+            } catch (ExpressException e) {
+                mockConfig.getStats().recordFailure();
+                logger.debug("mock condition evaluation failed: {}", condition.getExpress(), e);
+                return false;
+            }
+        }
+
         private static void bindJsonArgumentIfNecessary(OgnlContext ognlContext,
-                Class<?> clazz,
-                String methodName,
+                MockMethod mockMethod,
                 MockConfig mockConfig,
                 boolean isAfter) {
             if (ognlContext == null || mockConfig == null || mockConfig.getJsonPayload() == null
                     || mockConfig.getJsonPayload().trim().isEmpty()) {
                 return;
             }
-            Method method = resolveReflectiveMethod(clazz, methodName, ognlContext.getParams());
-            ognlContext.setJson(resolveTypedJsonValue(mockConfig.getJsonPayload(), method, ognlContext.getParams(), isAfter));
+            JsonTemplate jsonTemplate = mockConfig.getJsonTemplate(isAfter);
+            if (jsonTemplate == null) {
+                jsonTemplate = new JsonTemplate(resolveTypedJsonValue(mockConfig.getJsonPayload(),
+                        mockMethod.getMethod(), ognlContext.getParams(), isAfter));
+                mockConfig.setJsonTemplate(isAfter, jsonTemplate);
+            }
+            ognlContext.setJson(jsonTemplate.newInstance());
         }
 
         private static Object resolveTypedJsonValue(String jsonPayload, Method method, Object[] params, boolean isAfter) {
@@ -669,57 +1998,9 @@ public class MockCommand extends AnnotatedCommand {
             return parsedJson;
         }
 
-        private static Object getExpressionResult(String express, OgnlContext ognlContext, boolean strict)
+        private static Object getExpressionResult(MockExpression expression, OgnlContext ognlContext, boolean strict)
                 throws ExpressException {
-            StrictState strictState = syncStrictState(strict);
-            try {
-                return ExpressFactory.threadLocalExpress(ognlContext).get(express);
-            } finally {
-                restoreStrictState(strictState);
-            }
-        }
-
-        private static StrictState syncStrictState(boolean strict) {
-            boolean previousGlobalStrict = GlobalOptions.strict;
-            boolean previousOgnlStrict = previousGlobalStrict;
-            boolean ognlFieldAccessible = false;
-            try {
-                Field field = OgnlRuntime.class.getDeclaredField(OGNL_STRICT_FIELD_NAME);
-                field.setAccessible(true);
-                previousOgnlStrict = field.getBoolean(null);
-                ognlFieldAccessible = true;
-                if (previousOgnlStrict != strict) {
-                    updateStrictField(field, strict);
-                }
-            } catch (ReflectiveOperationException e) {
-                logger.debug("Failed to sync OGNL strict invocation for mock command.", e);
-            }
-            if (previousGlobalStrict != strict) {
-                GlobalOptions.strict = strict;
-            }
-            return new StrictState(previousGlobalStrict, previousOgnlStrict, ognlFieldAccessible);
-        }
-
-        private static void restoreStrictState(StrictState strictState) {
-            if (strictState == null) {
-                return;
-            }
-            if (GlobalOptions.strict != strictState.previousGlobalStrict) {
-                GlobalOptions.strict = strictState.previousGlobalStrict;
-            }
-            if (!strictState.ognlFieldAccessible) {
-                return;
-            }
-            try {
-                Field field = OgnlRuntime.class.getDeclaredField(OGNL_STRICT_FIELD_NAME);
-                field.setAccessible(true);
-                boolean current = field.getBoolean(null);
-                if (current != strictState.previousOgnlStrict) {
-                    updateStrictField(field, strictState.previousOgnlStrict);
-                }
-            } catch (ReflectiveOperationException e) {
-                logger.debug("Failed to restore OGNL strict invocation for mock command.", e);
-            }
+            return expression.evaluate(ognlContext, strict);
         }
 
         private static String normalizeJsonAlias(String express) {
@@ -776,79 +2057,143 @@ public class MockCommand extends AnnotatedCommand {
             return JSON.parseObject(JSON.toJSONString(parsedJson), targetType, AUTO_TYPE_FEATURES);
         }
 
-        private static Object parseJsonPayload(String express) {
-            return JSON.parse(express.trim(), AUTO_TYPE_FEATURES);
-        }
-
-        private static Method resolveReflectiveMethod(Class<?> clazz, String methodName, Object[] args) {
-            if (clazz == null || methodName == null) {
-                throw new IllegalArgumentException("Unable to resolve reflective method for JSON payload binding");
+        /**
+         * --return 先按 JSON 解析，不是合法 JSON 时当作普通字符串，再转换为方法的返回类型；void 方法忽略该值。
+         */
+        private static Object parseReturnValue(String literal, Method method) {
+            if (method.getReturnType() == void.class) {
+                return null;
             }
-            int parameterCount = args == null ? -1 : args.length;
-            List<Method> candidates = new ArrayList<>();
-            for (Method method : clazz.getDeclaredMethods()) {
-                if (!method.isBridge()
-                        && !method.isSynthetic()
-                        && method.getName().equals(methodName)
-                        && (parameterCount < 0 || method.getParameterTypes().length == parameterCount)) {
-                    candidates.add(method);
-                }
+            Object parsed;
+            try {
+                parsed = parseJsonPayload(literal);
+            } catch (RuntimeException e) {
+                parsed = literal;
             }
-            if (candidates.isEmpty()) {
-                throw new IllegalArgumentException("No reflective method named '" + methodName + "' found on "
-                        + clazz.getName());
+            Object value;
+            try {
+                value = convertJsonValue(parsed, method.getGenericReturnType());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cannot convert --return " + literal + " to "
+                        + method.getGenericReturnType().getTypeName(), e);
             }
-            if (candidates.size() > 1) {
-                throw new IllegalArgumentException("JSON payload binding does not support overloaded method: "
-                        + clazz.getName() + "#" + methodName + ", please use explicit OGNL instead");
+            if (value == null && method.getReturnType().isPrimitive()) {
+                throw new IllegalArgumentException("--return " + literal + " is not a valid "
+                        + method.getReturnType().getName());
             }
-            return candidates.get(0);
+            return value;
         }
 
-
-        private static void updateStrictField(Field field, boolean value) throws ReflectiveOperationException {
-            try {
-                field.setBoolean(null, value);
-            } catch (IllegalAccessException e) {
-                updateStrictFieldWithUnsafe(field, value);
-            }
+        private static Object parseJsonPayload(String express) {
+            return JSON.parse(express.trim(), AUTO_TYPE_FEATURES);
         }
 
-        private static void updateStrictFieldWithUnsafe(Field field, boolean value) throws ReflectiveOperationException {
-            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
-            Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
-            theUnsafeField.setAccessible(true);
-            Object unsafe = theUnsafeField.get(null);
-            Object staticFieldBase = unsafeClass.getMethod("staticFieldBase", Field.class).invoke(unsafe, field);
-            long staticFieldOffset = ((Number) unsafeClass.getMethod("staticFieldOffset", Field.class)
-                    .invoke(unsafe, field)).longValue();
-            unsafeClass.getMethod("putBoolean", Object.class, long.class, boolean.class)
-                    .invoke(unsafe, staticFieldBase, staticFieldOffset, value);
+        private static MockConfig getMockConfig(int mockId) {
+            MockConfig[] configs = mockConfigs;
+            return mockId >= 0 && mockId < configs.length ? configs[mockId] : null;
         }
 
-        private static MockConfig getMockCommand(Class<?> clazz, String methodName) {
-            if (clazz == null || methodName == null) {
-                return null;
-            }
-            Map<String, MockConfig> methodMocks = mockCommands.get(clazz);
-            if (methodMocks == null) {
-                return null;
-            }
-            return methodMocks.get(methodName);
-        }
-
-
         private static final class MockConfig {
+            private final Class<?> clazz;
+            private final MockMethod mockMethod;
             private final String beforeOgnl;
             private final String afterOgnl;
             private final String jsonPayload;
             private final boolean strict;
-
-            private MockConfig(String beforeOgnl, String afterOgnl, String jsonPayload, boolean strict) {
+            private final MockExpression beforeExpression;
+            private final MockExpression afterExpression;
+            private volatile JsonTemplate beforeJsonTemplate;
+            private volatile JsonTemplate afterJsonTemplate;
+            private MockStats stats = new MockStats();
+            private final AtomicLong remaining;
+            /** System.nanoTime() 时间轴上的到期时刻，0 表示不限时 */
+            private final long deadlineNanos;
+            private final MockThrottle throttle;
+            private final MockExpression conditionExpression;
+            private final String returnLiteral;
+            private final Object returnValue;
+            private final MockDelay delay;
+            private final MockReplayIndex replay;
+            private final MockTable.Index table;
+            /** 发布到槽位之前设置，之后只读 */
+            private MockRecorder recorder;
+            private final String methodId;
+            private volatile boolean active = true;
+
+            private MockConfig(Class<?> clazz, MockMethod mockMethod, String beforeOgnl, String afterOgnl,
+                    String jsonPayload, boolean strict, int limit, long deadlineNanos, MockThrottle throttle,
+                    String conditionOgnl, String returnLiteral, MockDelay delay, MockReplayIndex replay,
+                    MockTable table) {
+                this.clazz = clazz;
+                this.remaining = limit > 0 ? new AtomicLong(limit) : null;
+                this.deadlineNanos = deadlineNanos;
+                this.throttle = throttle;
+                this.mockMethod = mockMethod;
                 this.beforeOgnl = beforeOgnl;
                 this.afterOgnl = afterOgnl;
                 this.jsonPayload = jsonPayload;
                 this.strict = strict;
+                // #json 别名改写只依赖配置本身，与语法树一样在安装时完成；配置随 --clear/--clear-all 移除时一并失效
+                this.beforeExpression = MockExpression.compile(normalizeJsonAlias(beforeOgnl));
+                this.afterExpression = MockExpression.compile(normalizeJsonAlias(afterOgnl));
+                this.conditionExpression = MockExpression.compile(conditionOgnl);
+                this.returnLiteral = returnLiteral;
+                this.returnValue = returnLiteral == null ? null : parseReturnValue(returnLiteral, mockMethod.getMethod());
+                this.delay = delay;
+                this.replay = replay;
+                this.table = table == null ? null : table.bind(mockMethod.getMethod());
+                this.methodId = clazz.getName() + "#" + getMethodKey();
+            }
+
+            private MockDelay getDelay() {
+                return delay;
+            }
+
+            private MockReplayIndex getReplay() {
+                return replay;
+            }
+
+            private MockTable.Index getTable() {
+                return table;
+            }
+
+            private MockRecorder getRecorder() {
+                return recorder;
+            }
+
+            private void setRecorder(MockRecorder recorder) {
+                this.recorder = recorder;
+            }
+
+            /**
+             * 录制与回放的键使用 类名#方法名描述符，与槽位编号无关，跨进程保持一致。
+             */
+            private String getMethodId() {
+                return methodId;
+            }
+
+            /**
+             * 是否在入口生效（执行 before、创建 after 用的上下文、入口延迟、回放、查响应表）；只有 --record 在出口生效。
+             */
+            private boolean isEntryPhase() {
+                return beforeExpression != null || recorder == null;
+            }
+
+            private boolean hasEntryAction() {
+                return beforeExpression != null || afterExpression != null || delay != null || replay != null
+                        || table != null;
+            }
+
+            private boolean hasExitAction() {
+                return afterExpression != null || recorder != null;
+            }
+
+            private String getReturnLiteral() {
+                return returnLiteral;
+            }
+
+            private Object getReturnValue() {
+                return returnValue;
             }
 
             private String getBeforeOgnl() {
@@ -866,53 +2211,226 @@ public class MockCommand extends AnnotatedCommand {
             private boolean isStrict() {
                 return strict;
             }
+
+            private MockExpression getBeforeExpression() {
+                return beforeExpression;
+            }
+
+            private MockExpression getAfterExpression() {
+                return afterExpression;
+            }
+
+            private Class<?> getClazz() {
+                return clazz;
+            }
+
+            private MockMethod getMockMethod() {
+                return mockMethod;
+            }
+
+            private boolean isActive() {
+                return active;
+            }
+
+            private long getRemaining() {
+                return remaining == null ? -1L : remaining.get();
+            }
+
+            /**
+             * 无锁扣减剩余次数；扣到 0 的那次调用仍然生效，同时立即把 active 置为 false 并通知后台清理注册表。
+             */
+            private boolean tryAcquire() {
+                if (remaining == null) {
+                    return true;
+                }
+                for (;;) {
+                    long current = remaining.get();
+                    if (current <= 0) {
+                        return false;
+                    }
+                    if (remaining.compareAndSet(current, current - 1)) {
+                        if (current == 1) {
+                            exhaust();
+                        }
+                        return true;
+                    }
+                }
+            }
+
+            private MockExpression getConditionExpression() {
+                return conditionExpression;
+            }
+
+            private MockThrottle getThrottle() {
+                return throttle;
+            }
+
+            /**
+             * 有 -c、--replay 或 --table 时 --ratio/--rate 在命中之后才判断，否则在 isActive 里判断。
+             */
+            private boolean isThrottledAfterMatch() {
+                return conditionExpression != null || replay != null || table != null;
+            }
+
+            private boolean isExpired(long nowNanos) {
+                return deadlineNanos != 0L && nowNanos - deadlineNanos >= 0L;
+            }
+
+            private long getTtlMillis(long nowNanos) {
+                if (deadlineNanos == 0L) {
+                    return -1L;
+                }
+                return Math.max(0L, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - nowNanos));
+            }
+
+            /**
+             * 到期由后台调度线程发起，只关闭 active，不再回调次数用完的监听。
+             */
+            private void expire() {
+                active = false;
+            }
+
+            private void exhaust() {
+                active = false;
+                Consumer<Class<?>> listener = exhaustionListener;
+                if (listener == null) {
+                    return;
+                }
+                try {
+                    listener.accept(clazz);
+                } catch (RuntimeException e) {
+                    // 清理失败只影响注册表何时回收，active 已经关闭，不能把异常抛进业务调用
+                }
+            }
+
+            private MockStats getStats() {
+                return stats;
+            }
+
+            private void inheritStats(MockConfig previous) {
+                this.stats = previous.stats;
+            }
+
+            private String getMethodKey() {
+                return mockMethod.getArthasMethod().getName() + mockMethod.getMethodDesc();
+            }
+
+            private JsonTemplate getJsonTemplate(boolean isAfter) {
+                return isAfter ? afterJsonTemplate : beforeJsonTemplate;
+            }
+
+            private void setJsonTemplate(boolean isAfter, JsonTemplate jsonTemplate) {
+                if (isAfter) {
+                    afterJsonTemplate = jsonTemplate;
+                } else {
+                    beforeJsonTemplate = jsonTemplate;
+                }
+            }
         }
 
-        private static final class StrictState {
-            private final boolean previousGlobalStrict;
-            private final boolean previousOgnlStrict;
-            private final boolean ognlFieldAccessible;
+        /**
+         * 一条定义准备好的配置，按匹配到的方法各一个；录制文件登记时才打开。
+         */
+        private static final class PreparedMocks {
+            private final List<MockConfig> configs;
+            private final Path recordPath;
 
-            private StrictState(boolean previousGlobalStrict, boolean previousOgnlStrict, boolean ognlFieldAccessible) {
-                this.previousGlobalStrict = previousGlobalStrict;
-                this.previousOgnlStrict = previousOgnlStrict;
-                this.ognlFieldAccessible = ognlFieldAccessible;
+            private PreparedMocks(List<MockConfig> configs, Path recordPath) {
+                this.configs = configs;
+                this.recordPath = recordPath;
+            }
+        }
+
+        /**
+         * -j 预载 JSON 首次调用时按方法签名解析并转换一次，之后每次调用只拿深拷贝，
+         * OGNL 对 #json 的修改不会在调用、线程之间互相污染。
+         */
+        private static final class JsonTemplate {
+            private final Object value;
+
+            private JsonTemplate(Object value) {
+                this.value = value;
+            }
+
+            private Object newInstance() {
+                return value == null ? null : JSON.copy(value);
+            }
+        }
+
+        /**
+         * 安装时解析好的方法元数据，增强后的方法按自身描述符直接取用，调用路径不再扫描 getDeclaredMethods。
+         */
+        private static final class MockMethod {
+            private final ArthasMethod arthasMethod;
+            private final Method method;
+            private final String methodDesc;
+
+            private MockMethod(ArthasMethod arthasMethod, Method method, String methodDesc) {
+                this.arthasMethod = arthasMethod;
+                this.method = method;
+                this.methodDesc = methodDesc;
+            }
+
+            private ArthasMethod getArthasMethod() {
+                return arthasMethod;
+            }
+
+            private Method getMethod() {
+                return method;
+            }
+
+            private String getMethodDesc() {
+                return methodDesc;
             }
         }
 
         public static final class Completion {
-            private final Object returnValue;
-            private final Throwable throwable;
+            private Object returnValue;
+            private Throwable throwable;
 
-            private Completion(Object returnValue, Throwable throwable) {
-                this.returnValue = returnValue;
-                this.throwable = throwable;
+            private Completion() {
             }
 
-            public Object getReturnValue() {
-                return returnValue;
+            /**
+             * 取走后清空，避免线程复用的实例一直引用上一次的返回值。
+             */
+            public Object takeReturnValue() {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
             }
 
-            public Throwable getThrowable() {
-                return throwable;
+            public Throwable takeThrowable() {
+                Throwable value = throwable;
+                throwable = null;
+                return value;
             }
         }
 
-        private static ArthasMethod resolveArthasMethod(Class<?> clazz, String methodName) {
+        private static List<MockMethod> resolveMockMethods(Class<?> clazz, String methodName, String methodDesc) {
+            List<MockMethod> mockMethods = new ArrayList<>();
             for (Method method : clazz.getDeclaredMethods()) {
-                if (method.getName().equals(methodName)) {
-                    return new ArthasMethod(clazz, methodName, descriptor(method.getParameterTypes()));
+                if (method.isBridge() || method.isSynthetic() || !method.getName().equals(methodName)) {
+                    continue;
+                }
+                String descriptor = methodDescriptor(method);
+                if (methodDesc == null || methodDesc.equals(descriptor)) {
+                    mockMethods.add(new MockMethod(new ArthasMethod(clazz, methodName, descriptor), method, descriptor));
                 }
             }
-            throw new IllegalArgumentException("No method named '" + methodName + "' found on " + clazz.getName());
+            if (mockMethods.isEmpty()) {
+                throw new IllegalArgumentException("No method '" + methodName + (methodDesc == null ? "" : methodDesc)
+                        + "' found on " + clazz.getName());
+            }
+            return mockMethods;
         }
 
-        private static String descriptor(Class<?>[] parameterTypes) {
-            StringBuilder builder = new StringBuilder();
-            for (Class<?> parameterType : parameterTypes) {
+        static String methodDescriptor(Method method) {
+            StringBuilder builder = new StringBuilder("(");
+            for (Class<?> parameterType : method.getParameterTypes()) {
                 builder.append(toDescriptor(parameterType));
             }
-            return builder.toString();
+            return builder.append(')').append(toDescriptor(method.getReturnType())).toString();
         }
 
         private static String toDescriptor(Class<?> type) {
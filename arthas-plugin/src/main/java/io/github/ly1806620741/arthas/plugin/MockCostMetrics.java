@@ -0,0 +1,97 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 一次 mock 安装/清除的开销：按阶段累计耗时，并记录改写（retransform）的类数与字节数。
+ * <p>
+ * retransform 期间 JVM 会进入安全点，运维在把匹配范围放大之前，可以先用窄范围的这组数字估算代价。
+ */
+final class MockCostMetrics {
+
+    static final String SEARCH = "search";
+    static final String MATCH = "match";
+    static final String ENHANCE = "enhance";
+    static final String RETRANSFORM = "retransform";
+    static final String RESTORE = "restore";
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private int methodCount;
+    private int classCount;
+    private long byteCount;
+    private int preEnhancedCount;
+
+    /**
+     * @param startNanos 阶段开始时的 System.nanoTime()，同一阶段多次记录时累加
+     */
+    void record(String phase, long startNanos) {
+        phaseNanos.merge(phase, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    /**
+     * 累加在别处测得的耗时，例如 retransform 回调里就地增强的部分。
+     */
+    void addPhaseNanos(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    void addMatchedMethods(int methods) {
+        methodCount += methods;
+    }
+
+    void addRewrittenClass(int classBytes) {
+        classCount++;
+        byteCount += classBytes;
+    }
+
+    /**
+     * 只计入类数，用于还原为原始字节码这类拿不到改写后字节数的场景。
+     */
+    void addRewrittenClasses(int classes) {
+        classCount += classes;
+    }
+
+    /**
+     * retransform 回调直接采用了并行预增强结果的类数。
+     */
+    void addPreEnhancedClasses(int classes) {
+        preEnhancedCount += classes;
+    }
+
+    int getMethodCount() {
+        return methodCount;
+    }
+
+    int getClassCount() {
+        return classCount;
+    }
+
+    long getByteCount() {
+        return byteCount;
+    }
+
+    long getPhaseNanos(String phase) {
+        Long nanos = phaseNanos.get(phase);
+        return nanos == null ? 0L : nanos;
+    }
+
+    /**
+     * 形如 search=1.20ms, match=0.31ms, enhance=4.02ms, retransform=12.57ms, classes=3, bytes=18230；未执行的阶段不输出，
+     * 有类采用了预增强结果时追加 pre-enhanced=2。
+     */
+    String describe() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            builder.append(entry.getKey()).append('=')
+                    .append(String.format(Locale.ROOT, "%.2fms", entry.getValue() / 1_000_000.0d))
+                    .append(", ");
+        }
+        builder.append("classes=").append(classCount).append(", bytes=").append(byteCount);
+        if (preEnhancedCount > 0) {
+            builder.append(", pre-enhanced=").append(preEnhancedCount);
+        }
+        return builder.toString();
+    }
+}
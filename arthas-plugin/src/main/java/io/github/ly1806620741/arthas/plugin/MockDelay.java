@@ -0,0 +1,121 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * --delay 注入的延迟：固定值、uniform(a,b) 均匀分布或 normal(mu,sigma) 正态分布，每次生效的调用单独采样。
+ * <p>
+ * 随机数取自 ThreadLocalRandom，调用线程之间不竞争；等待用 LockSupport.parkNanos，不占 CPU，也不经过 OGNL。
+ */
+final class MockDelay {
+
+    private static final String UNIFORM = "uniform";
+    private static final String NORMAL = "normal";
+
+    private final String spec;
+    private final String distribution;
+    private final long firstNanos;
+    private final long secondNanos;
+
+    private MockDelay(String spec, String distribution, long firstNanos, long secondNanos) {
+        this.spec = spec;
+        this.distribution = distribution;
+        this.firstNanos = firstNanos;
+        this.secondNanos = secondNanos;
+    }
+
+    /**
+     * 支持 200ms、fixed(200ms)、uniform(100ms,300ms)、normal(200ms,50ms)；时长单位为 ns/us/ms/s，不写单位按毫秒。
+     * 未配置时返回 null，热路径只需判空。
+     */
+    static MockDelay parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+        String value = spec.trim().toLowerCase(Locale.ROOT).replace(" ", "");
+        int open = value.indexOf('(');
+        if (open < 0) {
+            return new MockDelay(value, null, parseNanos(value, spec), 0L);
+        }
+        if (!value.endsWith(")")) {
+            throw new IllegalArgumentException("Invalid delay: " + spec);
+        }
+        String distribution = value.substring(0, open);
+        String[] arguments = value.substring(open + 1, value.length() - 1).split(",", -1);
+        if ("fixed".equals(distribution) && arguments.length == 1) {
+            return new MockDelay(value, null, parseNanos(arguments[0], spec), 0L);
+        }
+        if (!(UNIFORM.equals(distribution) || NORMAL.equals(distribution)) || arguments.length != 2) {
+            throw new IllegalArgumentException("Invalid delay: " + spec);
+        }
+        long first = parseNanos(arguments[0], spec);
+        long second = parseNanos(arguments[1], spec);
+        if (UNIFORM.equals(distribution) && second < first) {
+            throw new IllegalArgumentException("Invalid delay, upper bound is less than lower bound: " + spec);
+        }
+        return new MockDelay(value, distribution, first, second);
+    }
+
+    private static long parseNanos(String value, String spec) {
+        TimeUnit unit = TimeUnit.MILLISECONDS;
+        String amount = value;
+        if (value.endsWith("ns")) {
+            unit = TimeUnit.NANOSECONDS;
+            amount = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("us")) {
+            unit = TimeUnit.MICROSECONDS;
+            amount = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("ms")) {
+            amount = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            unit = TimeUnit.SECONDS;
+            amount = value.substring(0, value.length() - 1);
+        }
+        double parsed;
+        try {
+            parsed = Double.parseDouble(amount);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid delay: " + spec, e);
+        }
+        if (!(parsed >= 0) || Double.isInfinite(parsed)) {
+            throw new IllegalArgumentException("Delay must not be negative: " + spec);
+        }
+        return (long) (parsed * unit.toNanos(1));
+    }
+
+    long nextDelayNanos() {
+        if (distribution == null) {
+            return firstNanos;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (UNIFORM.equals(distribution)) {
+            return secondNanos == firstNanos ? firstNanos : random.nextLong(firstNanos, secondNanos + 1);
+        }
+        // 正态分布左侧截断到 0，sigma 较大时均值会略高于 mu
+        return Math.max(0L, (long) (firstNanos + random.nextGaussian() * secondNanos));
+    }
+
+    /**
+     * parkNanos 可能提前返回，按截止时刻补足；线程被中断时立即返回并保留中断标记，不拖住正在关闭的业务线程。
+     */
+    void await() {
+        long delayNanos = nextDelayNanos();
+        if (delayNanos <= 0L) {
+            return;
+        }
+        long deadline = System.nanoTime() + delayNanos;
+        for (long remaining = delayNanos; remaining > 0L; remaining = deadline - System.nanoTime()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    String describe() {
+        return spec;
+    }
+}
@@ -0,0 +1,272 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Member;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.command.express.ExpressException;
+
+import io.github.ly1806620741.arthas.OgnlContext;
+import ognl.ASTAssign;
+import ognl.ASTChain;
+import ognl.ASTProperty;
+import ognl.ClassResolver;
+import ognl.MemberAccess;
+import ognl.Node;
+import ognl.Ognl;
+import ognl.OgnlException;
+
+/**
+ * mock 表达式：安装时解析一次 OGNL 语法树，调用时只做求值；常见写法由 {@link MockExpressionCompiler} 编译后直接执行。
+ * <p>
+ * 求值不经过 Arthas 的 ExpressFactory，与 watch 等命令有两点差异：表达式中的类名优先按被 mock 类的类加载器解析，
+ * 结果按表达式缓存；非 public 成员与 Arthas 一样在访问前临时放开、访问后恢复。
+ * <p>
+ * strict 只作用于单次求值，不修改 GlobalOptions.strict、OGNL 的 stricter invocation 等进程级开关，
+ * 同时进行的 strict 与非 strict 求值互不影响：strict 求值使用 Arthas 的 OGNL，非 strict 求值使用
+ * {@link MockOgnlRuntime} 中关闭了 stricter invocation 的独立运行时。
+ */
+final class MockExpression {
+
+    private static final Logger logger = LoggerFactory.getLogger(MockExpression.class);
+
+    private static final String CLASS_CACHE_KEY = MockExpression.class.getName() + ".classes";
+    private static final String ROOT_KEY = MockExpression.class.getName() + ".root";
+    private static final String STRICT_MESSAGE = "By default, strict mode is true, not allowed to set object properties. "
+            + "Want to set object properties, execute `options strict false`";
+
+    private static final MemberAccess MEMBER_ACCESS = new MockMemberAccess();
+    private static final ClassResolver CLASS_RESOLVER = new MockClassResolver();
+
+    private final String express;
+    private final Object tree;
+    /** 语法树里有对象属性赋值（不含 #变量、数组下标赋值）时 strict 求值直接拒绝 */
+    private final boolean assignsProperty;
+    /** 非 strict 求值用的独立运行时中的语法树，首次走 OGNL 时解析 */
+    private volatile Object nonStrictTree;
+    /** 表达式只属于一个被 mock 类，解析类名用的类加载器固定，按表达式缓存即按类加载器缓存；随配置一起释放 */
+    private final Map<String, Class<?>> resolvedClasses = new ConcurrentHashMap<>();
+    /** 运行时发现无法按编译结果执行时置为 null，之后一直走 OGNL */
+    private volatile MockExpressionCompiler.Action compiled;
+
+    private MockExpression(String express, Object tree) {
+        this.express = express;
+        this.tree = tree;
+        this.assignsProperty = assignsProperty((Node) tree);
+        this.compiled = MockExpressionCompiler.compile(tree);
+    }
+
+    static MockExpression compile(String express) {
+        if (express == null) {
+            return null;
+        }
+        try {
+            return new MockExpression(express, Ognl.parseExpression(express));
+        } catch (OgnlException e) {
+            throw new IllegalArgumentException("Invalid mock OGNL expression: " + express, e);
+        }
+    }
+
+    String getExpress() {
+        return express;
+    }
+
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * strict 下对象属性赋值在求值前被拒绝，与 Arthas strict 一致；编译结果只在非 strict 时使用，
+     * 无法编译的非 strict 表达式交给独立运行时求值，可以调用 Arthas strict 下被 OGNL 禁止的方法。
+     */
+    Object evaluate(OgnlContext root, boolean strict) throws ExpressException {
+        if (strict && assignsProperty) {
+            throw new IllegalAccessError(STRICT_MESSAGE);
+        }
+        MockExpressionCompiler.Action action = compiled;
+        if (action != null && !strict) {
+            try {
+                return action.run(root);
+            } catch (MockExpressionCompiler.NotCompilableException e) {
+                logger.debug("Fall back to OGNL for mock expression: {}, {}", express, e.getMessage());
+                compiled = null;
+            } catch (Exception e) {
+                throw new ExpressException(express, e);
+            }
+        }
+        return strict ? evaluateOnRoot(root) : evaluateNonStrict(root);
+    }
+
+    /**
+     * -c 条件只读取 params/target，根对象不带 mock 上下文的其它字段；与 Arthas watch 一致，结果为 true 才算命中。
+     * 条件按 strict 求值，给对象属性赋值按求值失败处理。
+     */
+    boolean test(Object target, Object[] params, ClassLoader loader) throws ExpressException {
+        if (assignsProperty) {
+            throw new ExpressException(express, new IllegalAccessError(STRICT_MESSAGE));
+        }
+        return Boolean.TRUE.equals(evaluateOnRoot(new ConditionRoot(target, params, loader)));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Object evaluateOnRoot(Object root) throws ExpressException {
+        Map context = Ognl.createDefaultContext(root, MEMBER_ACCESS, CLASS_RESOLVER, null);
+        context.put(CLASS_CACHE_KEY, resolvedClasses);
+        context.put(ROOT_KEY, root);
+        try {
+            return Ognl.getValue(tree, context, root);
+        } catch (Exception e) {
+            throw new ExpressException(express, e);
+        }
+    }
+
+    private Object evaluateNonStrict(Object root) throws ExpressException {
+        try {
+            MockOgnlRuntime runtime = MockOgnlRuntime.get(MEMBER_ACCESS, CLASS_RESOLVER);
+            Object isolatedTree = nonStrictTree;
+            if (isolatedTree == null) {
+                isolatedTree = runtime.parse(express);
+                nonStrictTree = isolatedTree;
+            }
+            Map<String, Object> context = runtime.createContext(root);
+            context.put(CLASS_CACHE_KEY, resolvedClasses);
+            context.put(ROOT_KEY, root);
+            return runtime.getValue(isolatedTree, context, root);
+        } catch (Exception e) {
+            throw new ExpressException(express, e);
+        }
+    }
+
+    /**
+     * 与 Arthas strict 一样只拦截经对象属性访问器的赋值：a.b=、b= 算，#变量=、数组或 List 的 [i]= 不算。
+     */
+    private static boolean assignsProperty(Node node) {
+        if (node instanceof ASTAssign && isPropertyWrite(node.jjtGetChild(0))) {
+            return true;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (assignsProperty(node.jjtGetChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPropertyWrite(Node target) {
+        Node last = target instanceof ASTChain ? target.jjtGetChild(target.jjtGetNumChildren() - 1) : target;
+        return last instanceof ASTProperty && !((ASTProperty) last).isIndexedAccess();
+    }
+
+    /**
+     * 条件表达式的根对象，表达式里通过 params/target（或 #this.params）访问。
+     */
+    static final class ConditionRoot {
+
+        private final Object target;
+        private final Object[] params;
+        private final ClassLoader loader;
+
+        private ConditionRoot(Object target, Object[] params, ClassLoader loader) {
+            this.target = target;
+            this.params = params;
+            this.loader = loader;
+        }
+
+        public Object getTarget() {
+            return target;
+        }
+
+        public Object[] getParams() {
+            return params;
+        }
+    }
+
+    /**
+     * 与 Arthas 使用的 OGNL DefaultMemberAccess 一致允许访问非 public 成员：访问前打开可访问标记，返回的 state
+     * 表示由本次打开，OGNL 在访问结束后调用 restore 关闭，不留下永久可访问的成员。
+     */
+    @SuppressWarnings({ "rawtypes", "deprecation" })
+    private static final class MockMemberAccess implements MemberAccess {
+
+        @Override
+        public Object setup(Map context, Object target, Member member, String propertyName) {
+            if (member instanceof AccessibleObject && !((AccessibleObject) member).isAccessible()) {
+                try {
+                    ((AccessibleObject) member).setAccessible(true);
+                    return Boolean.TRUE;
+                } catch (RuntimeException e) {
+                    // JDK 9+ 未开放的模块成员，交给 OGNL 按原有可见性处理
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void restore(Map context, Object target, Member member, String propertyName, Object state) {
+            if (state != null) {
+                ((AccessibleObject) member).setAccessible(false);
+            }
+        }
+
+        @Override
+        public boolean isAccessible(Map context, Object target, Member member, String propertyName) {
+            return true;
+        }
+    }
+
+    /**
+     * 优先使用被 mock 类的类加载器解析表达式中的类名，找不到时回退到线程上下文类加载器。
+     * <p>
+     * 按被 mock 类的类加载器解析的结果放进表达式的缓存，调用路径上同一个类名只做一次 Class.forName；
+     * 回退到线程上下文类加载器时每个线程可能不同，不缓存。
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final class MockClassResolver implements ClassResolver {
+
+        @Override
+        public Class classForName(String className, Map context) throws ClassNotFoundException {
+            ClassLoader rootLoader = rootClassLoader(context);
+            Map<String, Class<?>> cache = rootLoader == null ? null
+                    : (Map<String, Class<?>>) context.get(CLASS_CACHE_KEY);
+            Class<?> clazz = cache == null ? null : cache.get(className);
+            if (clazz != null) {
+                return clazz;
+            }
+            clazz = loadClass(className, rootLoader != null ? rootLoader : contextClassLoader());
+            if (cache != null) {
+                cache.put(className, clazz);
+            }
+            return clazz;
+        }
+
+        private static Class<?> loadClass(String className, ClassLoader loader) throws ClassNotFoundException {
+            try {
+                return Class.forName(className, true, loader);
+            } catch (ClassNotFoundException e) {
+                if (className.indexOf('.') < 0) {
+                    return Class.forName("java.lang." + className);
+                }
+                throw e;
+            }
+        }
+
+        private static ClassLoader rootClassLoader(Map context) {
+            Object root = context.get(ROOT_KEY);
+            if (root instanceof OgnlContext) {
+                return ((OgnlContext) root).getLoader();
+            }
+            if (root instanceof ConditionRoot) {
+                return ((ConditionRoot) root).loader;
+            }
+            return null;
+        }
+
+        private static ClassLoader contextClassLoader() {
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            return contextClassLoader != null ? contextClassLoader : MockExpression.class.getClassLoader();
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.ly1806620741.arthas.OgnlContext;
+import ognl.ASTAssign;
+import ognl.ASTChain;
+import ognl.ASTConst;
+import ognl.ASTCtor;
+import ognl.ASTNegate;
+import ognl.ASTProperty;
+import ognl.ASTSequence;
+import ognl.ASTThisVarRef;
+import ognl.Node;
+
+/**
+ * 把最常见的 mock 写法直接编译成固定的 Java 对象链，调用时不经过 OgnlRuntime 的反射与类型转换，JIT 可以整段内联。
+ * <p>
+ * 支持以逗号连接的赋值：左侧为 returnObj / skip / throwExp / params[i]（可带 #this. 前缀），
+ * 右侧为常量、json、params[i] 或参数全为常量的 new 表达式；其它写法返回 null，由调用方继续走 OGNL。
+ */
+final class MockExpressionCompiler {
+
+    private static final Object NO_CONSTANT = new Object();
+    /** ASTCtor 不公开类名，只能读私有字段；读不到时 new 表达式不编译，交给 OGNL */
+    private static final Field CTOR_CLASS_NAME = ctorClassNameField();
+
+    private MockExpressionCompiler() {
+    }
+
+    /**
+     * 编译后的表达式，求值语义与 OGNL 一致：依次执行赋值，返回最后一个赋值的值。
+     */
+    interface Action {
+        Object run(OgnlContext context) throws Exception;
+    }
+
+    /**
+     * 运行时才发现无法按编译结果执行（例如 new 的类在目标类加载器下解析不到唯一构造器），调用方应回退到 OGNL。
+     */
+    static final class NotCompilableException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private NotCompilableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    static Action compile(Object tree) {
+        if (!(tree instanceof Node)) {
+            return null;
+        }
+        Node node = (Node) tree;
+        if (node instanceof ASTSequence) {
+            Action[] actions = new Action[node.jjtGetNumChildren()];
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = compileAssign(node.jjtGetChild(i));
+                if (actions[i] == null) {
+                    return null;
+                }
+            }
+            return new Sequence(actions);
+        }
+        return compileAssign(node);
+    }
+
+    private static Action compileAssign(Node node) {
+        if (!(node instanceof ASTAssign) || node.jjtGetNumChildren() != 2) {
+            return null;
+        }
+        List<Node> path = propertyPath(node.jjtGetChild(0));
+        Value value = compileValue(node.jjtGetChild(1));
+        if (path == null || value == null) {
+            return null;
+        }
+        if (path.size() == 1) {
+            String property = propertyName(path.get(0));
+            if ("returnObj".equals(property)) {
+                return new SetReturnObj(value);
+            }
+            if ("throwExp".equals(property) && value.isAssignableTo(Throwable.class)) {
+                return new SetThrowExp(value);
+            }
+            if ("skip".equals(property) && value instanceof Constant
+                    && ((Constant) value).value instanceof Boolean) {
+                return new SetSkip((Boolean) ((Constant) value).value);
+            }
+            return null;
+        }
+        int index = paramIndex(path);
+        return index < 0 ? null : new SetParam(index, value);
+    }
+
+    private static Value compileValue(Node node) {
+        Object constant = constantOf(node);
+        if (constant != NO_CONSTANT) {
+            return new Constant(constant);
+        }
+        if (node instanceof ASTCtor) {
+            return compileConstructor((ASTCtor) node);
+        }
+        List<Node> path = propertyPath(node);
+        if (path == null) {
+            return null;
+        }
+        if (path.size() == 1 && "json".equals(propertyName(path.get(0)))) {
+            return new JsonValue();
+        }
+        int index = paramIndex(path);
+        return index < 0 ? null : new ParamValue(index);
+    }
+
+    private static Object constantOf(Node node) {
+        if (node instanceof ASTConst) {
+            return ((ASTConst) node).getValue();
+        }
+        if (node instanceof ASTNegate && node.jjtGetNumChildren() == 1 && node.jjtGetChild(0) instanceof ASTConst) {
+            Object value = ((ASTConst) node.jjtGetChild(0)).getValue();
+            if (value instanceof Integer) {
+                return -(Integer) value;
+            }
+            if (value instanceof Long) {
+                return -(Long) value;
+            }
+            if (value instanceof Double) {
+                return -(Double) value;
+            }
+            if (value instanceof Float) {
+                return -(Float) value;
+            }
+        }
+        return NO_CONSTANT;
+    }
+
+    private static Value compileConstructor(ASTCtor node) {
+        if (node.isArray()) {
+            return null;
+        }
+        String className = ctorClassName(node);
+        if (className == null) {
+            return null;
+        }
+        Object[] args = new Object[node.jjtGetNumChildren()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = constantOf(node.jjtGetChild(i));
+            if (args[i] == NO_CONSTANT) {
+                return null;
+            }
+        }
+        return new NewInstance(className, args);
+    }
+
+    private static Field ctorClassNameField() {
+        try {
+            Field field = ASTCtor.class.getDeclaredField("className");
+            field.setAccessible(true);
+            return field.getType() == String.class ? field : null;
+        } catch (NoSuchFieldException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String ctorClassName(ASTCtor node) {
+        if (CTOR_CLASS_NAME == null) {
+            return null;
+        }
+        try {
+            return (String) CTOR_CLASS_NAME.get(node);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 展开 #this.a.b[0] 形式的属性链，去掉开头的 #this；含方法调用、变量等其它节点时返回 null。
+     */
+    private static List<Node> propertyPath(Node node) {
+        List<Node> path = new ArrayList<>();
+        if (node instanceof ASTProperty) {
+            path.add(node);
+            return path;
+        }
+        if (!(node instanceof ASTChain)) {
+            return null;
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            Node child = node.jjtGetChild(i);
+            if (i == 0 && child instanceof ASTThisVarRef) {
+                continue;
+            }
+            if (!(child instanceof ASTProperty)) {
+                return null;
+            }
+            path.add(child);
+        }
+        return path.isEmpty() ? null : path;
+    }
+
+    private static String propertyName(Node property) {
+        if (((ASTProperty) property).isIndexedAccess() || property.jjtGetNumChildren() != 1
+                || !(property.jjtGetChild(0) instanceof ASTConst)) {
+            return null;
+        }
+        Object name = ((ASTConst) property.jjtGetChild(0)).getValue();
+        return name instanceof String ? (String) name : null;
+    }
+
+    private static int paramIndex(List<Node> path) {
+        if (path.size() != 2 || !"params".equals(propertyName(path.get(0)))) {
+            return -1;
+        }
+        Node indexed = path.get(1);
+        if (!((ASTProperty) indexed).isIndexedAccess() || indexed.jjtGetNumChildren() != 1
+                || !(indexed.jjtGetChild(0) instanceof ASTConst)) {
+            return -1;
+        }
+        Object index = ((ASTConst) indexed.jjtGetChild(0)).getValue();
+        return index instanceof Integer && (Integer) index >= 0 ? (Integer) index : -1;
+    }
+
+    private abstract static class Value {
+
+        abstract Object get(OgnlContext context) throws Exception;
+
+        /**
+         * 只有能在编译期确定类型的值才参与判断；new 表达式的类在运行时解析时再校验。
+         */
+        boolean isAssignableTo(Class<?> type) {
+            return true;
+        }
+    }
+
+    private static final class Constant extends Value {
+
+        private final Object value;
+
+        private Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object get(OgnlContext context) {
+            return value;
+        }
+
+        @Override
+        boolean isAssignableTo(Class<?> type) {
+            return value == null || type.isInstance(value);
+        }
+    }
+
+    private static final class JsonValue extends Value {
+
+        @Override
+        Object get(OgnlContext context) {
+            return context.getJson();
+        }
+
+        @Override
+        boolean isAssignableTo(Class<?> type) {
+            return false;
+        }
+    }
+
+    private static final class ParamValue extends Value {
+
+        private final int index;
+
+        private ParamValue(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object get(OgnlContext context) {
+            return context.getParams()[index];
+        }
+
+        @Override
+        boolean isAssignableTo(Class<?> type) {
+            return false;
+        }
+    }
+
+    /**
+     * 每次调用都创建新实例（异常需要各自的栈）；构造器按目标类加载器解析一次后缓存。
+     */
+    private static final class NewInstance extends Value {
+
+        private final String className;
+        private final Object[] args;
+        private volatile ResolvedConstructor resolved;
+
+        private NewInstance(String className, Object[] args) {
+            this.className = className;
+            this.args = args;
+        }
+
+        @Override
+        Object get(OgnlContext context) throws Exception {
+            ClassLoader loader = context.getLoader();
+            if (loader == null) {
+                ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+                loader = contextClassLoader != null ? contextClassLoader : MockExpression.class.getClassLoader();
+            }
+            ResolvedConstructor current = resolved;
+            if (current == null || current.loader != loader) {
+                current = resolve(loader);
+                resolved = current;
+            }
+            try {
+                return current.constructor.newInstance(current.args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+
+        /**
+         * 与 MockClassResolver 一致：先用目标类加载器，简单类名再尝试 java.lang；只接受唯一可匹配的构造器。
+         */
+        private ResolvedConstructor resolve(ClassLoader loader) throws NotCompilableException {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(className, true, loader);
+            } catch (ClassNotFoundException e) {
+                try {
+                    clazz = className.indexOf('.') < 0 ? Class.forName("java.lang." + className) : null;
+                } catch (ClassNotFoundException ignored) {
+                    clazz = null;
+                }
+            }
+            if (clazz == null || Modifier.isAbstract(clazz.getModifiers())) {
+                throw new NotCompilableException("Unable to resolve " + className);
+            }
+            ResolvedConstructor match = null;
+            for (Constructor<?> constructor : clazz.getConstructors()) {
+                Object[] converted = convertArgs(constructor.getParameterTypes());
+                if (converted == null) {
+                    continue;
+                }
+                if (match != null) {
+                    throw new NotCompilableException("Ambiguous constructor of " + className);
+                }
+                match = new ResolvedConstructor(loader, constructor, converted);
+            }
+            if (match == null) {
+                throw new NotCompilableException("No matched constructor of " + className);
+            }
+            return match;
+        }
+
+        private Object[] convertArgs(Class<?>[] parameterTypes) {
+            if (parameterTypes.length != args.length) {
+                return null;
+            }
+            Object[] converted = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                Class<?> parameterType = wrap(parameterTypes[i]);
+                Object arg = args[i];
+                if (arg == null ? parameterTypes[i].isPrimitive() : !parameterType.isInstance(arg)) {
+                    // OGNL 里 'x' 是 Character，传给 String 参数时按字符串处理
+                    if (parameterType == String.class && arg instanceof Character) {
+                        arg = arg.toString();
+                    } else {
+                        return null;
+                    }
+                }
+                converted[i] = arg;
+            }
+            return converted;
+        }
+
+        private static Class<?> wrap(Class<?> type) {
+            if (!type.isPrimitive()) {
+                return type;
+            }
+            if (type == int.class) {
+                return Integer.class;
+            }
+            if (type == long.class) {
+                return Long.class;
+            }
+            if (type == boolean.class) {
+                return Boolean.class;
+            }
+            if (type == double.class) {
+                return Double.class;
+            }
+            if (type == float.class) {
+                return Float.class;
+            }
+            if (type == char.class) {
+                return Character.class;
+            }
+            if (type == short.class) {
+                return Short.class;
+            }
+            return type == byte.class ? Byte.class : Void.class;
+        }
+    }
+
+    private static final class ResolvedConstructor {
+
+        private final ClassLoader loader;
+        private final Constructor<?> constructor;
+        private final Object[] args;
+
+        private ResolvedConstructor(ClassLoader loader, Constructor<?> constructor, Object[] args) {
+            this.loader = loader;
+            this.constructor = constructor;
+            this.args = args;
+        }
+    }
+
+    private static final class Sequence implements Action {
+
+        private final Action[] actions;
+
+        private Sequence(Action[] actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        public Object run(OgnlContext context) throws Exception {
+            Object result = null;
+            for (Action action : actions) {
+                result = action.run(context);
+            }
+            return result;
+        }
+    }
+
+    private static final class SetReturnObj implements Action {
+
+        private final Value value;
+
+        private SetReturnObj(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object run(OgnlContext context) throws Exception {
+            Object result = value.get(context);
+            context.setReturnObj(result);
+            return result;
+        }
+    }
+
+    private static final class SetThrowExp implements Action {
+
+        private final Value value;
+
+        private SetThrowExp(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object run(OgnlContext context) throws Exception {
+            Object result = value.get(context);
+            if (result != null && !(result instanceof Throwable)) {
+                throw new NotCompilableException("throwExp requires a Throwable: " + result.getClass().getName());
+            }
+            context.setThrowExp((Throwable) result);
+            return result;
+        }
+    }
+
+    private static final class SetSkip implements Action {
+
+        private final Boolean value;
+
+        private SetSkip(Boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object run(OgnlContext context) {
+            context.skip = value;
+            return value;
+        }
+    }
+
+    private static final class SetParam implements Action {
+
+        private final int index;
+        private final Value value;
+
+        private SetParam(int index, Value value) {
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public Object run(OgnlContext context) throws Exception {
+            Object result = value.get(context);
+            context.getParams()[index] = result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import com.alibaba.deps.org.objectweb.asm.ClassReader;
+import com.alibaba.deps.org.objectweb.asm.ClassVisitor;
+import com.alibaba.deps.org.objectweb.asm.ClassWriter;
+import com.alibaba.deps.org.objectweb.asm.MethodVisitor;
+import com.alibaba.deps.org.objectweb.asm.Opcodes;
+
+import ognl.ClassResolver;
+import ognl.MemberAccess;
+import ognl.Ognl;
+
+/**
+ * 非 strict mock 专用的 OGNL 运行时：在独立的类加载器里按 Arthas 所用 OGNL 的字节码重新定义一份 ognl.* 类，
+ * 定义 OgnlRuntime 时把 stricter invocation 固定为关闭。
+ * <p>
+ * 这份运行时只有 OGNL 默认的属性访问器，不含 Arthas 按 GlobalOptions.strict 拦截对象属性赋值的访问器，
+ * 与基线在非 strict 求值期间关闭两个开关的效果一致；Arthas 与其它命令使用的 OGNL 不受任何影响。
+ * 只在非 strict 表达式无法编译、需要走 OGNL 时才加载。
+ */
+final class MockOgnlRuntime {
+
+    private static final String OGNL_PACKAGE = "ognl.";
+    private static final String OGNL_RUNTIME_CLASS = "ognl.OgnlRuntime";
+    private static final String STRICTER_INVOCATION_FIELD = "_useStricterInvocation";
+
+    private static volatile MockOgnlRuntime instance;
+
+    private final Method parseExpression;
+    private final Method createDefaultContext;
+    private final Method getValue;
+    private final Object memberAccess;
+    private final Object classResolver;
+
+    private MockOgnlRuntime(ClassLoader loader, MemberAccess memberAccess, ClassResolver classResolver)
+            throws ReflectiveOperationException {
+        Class<?> ognlClass = loader.loadClass(Ognl.class.getName());
+        Class<?> memberAccessClass = loader.loadClass(MemberAccess.class.getName());
+        Class<?> classResolverClass = loader.loadClass(ClassResolver.class.getName());
+        Class<?> typeConverterClass = loader.loadClass(OGNL_PACKAGE + "TypeConverter");
+        this.parseExpression = ognlClass.getMethod("parseExpression", String.class);
+        this.createDefaultContext = ognlClass.getMethod("createDefaultContext", Object.class, memberAccessClass,
+                classResolverClass, typeConverterClass);
+        this.getValue = ognlClass.getMethod("getValue", Object.class, Map.class, Object.class);
+        this.memberAccess = delegate(memberAccessClass, MemberAccess.class, memberAccess);
+        this.classResolver = delegate(classResolverClass, ClassResolver.class, classResolver);
+    }
+
+    static MockOgnlRuntime get(MemberAccess memberAccess, ClassResolver classResolver) {
+        MockOgnlRuntime runtime = instance;
+        if (runtime != null) {
+            return runtime;
+        }
+        synchronized (MockOgnlRuntime.class) {
+            if (instance == null) {
+                try {
+                    instance = new MockOgnlRuntime(new IsolatedOgnlClassLoader(), memberAccess, classResolver);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Failed to load the OGNL runtime for non-strict mocks", e);
+                }
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * 表达式在安装时已经用 Arthas 的 OGNL 解析校验过，这里只会在语法一致的前提下重新解析一次。
+     */
+    Object parse(String express) throws Exception {
+        return invoke(parseExpression, express);
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> createContext(Object root) throws Exception {
+        return (Map<String, Object>) invoke(createDefaultContext, root, memberAccess, classResolver, null);
+    }
+
+    Object getValue(Object tree, Map<String, Object> context, Object root) throws Exception {
+        return invoke(getValue, tree, context, root);
+    }
+
+    private static Object invoke(Method method, Object... args) throws Exception {
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 独立运行时里的接口与 Arthas OGNL 的同名接口方法签名只涉及 JDK 类型，按同名方法转发给插件已有的实现。
+     */
+    private static Object delegate(Class<?> isolatedInterface, Class<?> sharedInterface, Object target) {
+        return Proxy.newProxyInstance(isolatedInterface.getClassLoader(), new Class<?>[] { isolatedInterface },
+                (proxy, method, args) -> {
+                    Method targetMethod = method.getDeclaringClass() == Object.class ? method
+                            : sharedInterface.getMethod(method.getName(), method.getParameterTypes());
+                    try {
+                        return targetMethod.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * ognl.* 从 Arthas OGNL 所在类加载器读取字节码后在这里重新定义，其余类仍委派给该类加载器。
+     */
+    private static final class IsolatedOgnlClassLoader extends ClassLoader {
+
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        private IsolatedOgnlClassLoader() {
+            super(Ognl.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(OGNL_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                if (clazz == null) {
+                    byte[] classBytes = readClassBytes(name);
+                    if (OGNL_RUNTIME_CLASS.equals(name)) {
+                        classBytes = disableStricterInvocation(classBytes);
+                    }
+                    clazz = defineClass(name, classBytes, 0, classBytes.length, Ognl.class.getProtectionDomain());
+                }
+                if (resolve) {
+                    resolveClass(clazz);
+                }
+                return clazz;
+            }
+        }
+
+        private static byte[] readClassBytes(String name) throws ClassNotFoundException {
+            String resourceName = "/" + name.replace('.', '/') + ".class";
+            try (InputStream inputStream = Ognl.class.getResourceAsStream(resourceName)) {
+                if (inputStream == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                return outputStream.toByteArray();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        /**
+         * 静态初始化里给 _useStricterInvocation 赋值前把系统属性得到的值替换为 false。
+         */
+        private static byte[] disableStricterInvocation(byte[] classBytes) {
+            ClassReader classReader = new ClassReader(classBytes);
+            ClassWriter classWriter = new ClassWriter(classReader, 0);
+            classReader.accept(new ClassVisitor(Opcodes.ASM9, classWriter) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                        String[] exceptions) {
+                    MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                    if (!"<clinit>".equals(name)) {
+                        return methodVisitor;
+                    }
+                    return new MethodVisitor(Opcodes.ASM9, methodVisitor) {
+                        @Override
+                        public void visitFieldInsn(int opcode, String owner, String fieldName, String fieldDescriptor) {
+                            if (opcode == Opcodes.PUTSTATIC && STRICTER_INVOCATION_FIELD.equals(fieldName)) {
+                                super.visitInsn(Opcodes.POP);
+                                super.visitInsn(Opcodes.ICONST_0);
+                            }
+                            super.visitFieldInsn(opcode, owner, fieldName, fieldDescriptor);
+                        }
+                    };
+                }
+            }, 0);
+            return classWriter.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONWriter;
+
+/**
+ * --record 的写入端：业务线程把 (参数哈希, 返回值/异常) 编码为 JSONB 后放进无锁环形缓冲区即返回，
+ * 由后台线程顺序追加到内存映射文件，业务线程不做任何 I/O；缓冲区满时丢弃本条并计数。
+ * <p>
+ * 文件格式：8 字节文件头（魔数、版本），之后每条记录为 [int 长度][long 键][byte 类型][JSONB]，长度不含前 12 字节；
+ * 长度为 0 表示文件结束（映射区未写入的部分全为 0，进程异常退出时文件同样可读）。
+ */
+final class MockRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(MockRecorder.class);
+
+    static final int MAGIC = 0x414D5243;
+    static final int VERSION = 1;
+    static final int FILE_HEADER_BYTES = 8;
+    static final int FRAME_HEADER_BYTES = 12;
+    static final byte KIND_RETURN = 0;
+    static final byte KIND_THROWABLE = 1;
+
+    static final JSONWriter.Feature[] VALUE_FEATURES = {
+            JSONWriter.Feature.WriteClassName, JSONWriter.Feature.FieldBased, JSONWriter.Feature.ReferenceDetection
+    };
+    private static final JSONWriter.Feature[] KEY_FEATURES = {
+            JSONWriter.Feature.FieldBased, JSONWriter.Feature.SortMapEntriesByKeys,
+            JSONWriter.Feature.ReferenceDetection
+    };
+
+    private static final int RING_SIZE = 1 << 13;
+    private static final int RING_MASK = RING_SIZE - 1;
+    private static final long MAP_CHUNK_BYTES = 16L << 20;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long CLOSE_WAIT_MILLIS = 5000L;
+
+    /** 按规范化路径共享，同一文件可以同时记录多个方法；只在类锁内读写 */
+    private static final Map<Path, MockRecorder> OPEN_RECORDERS = new HashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicReferenceArray<byte[]> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /** 以下字段只由写线程访问 */
+    private MappedByteBuffer mapped;
+    private long position = FILE_HEADER_BYTES;
+
+    private MockRecorder(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        channel.write(header, 0L);
+        this.writer = new Thread(this::drain, "arthas-mock-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 打开记录文件并清空原有内容；同一文件已在记录时直接复用，上一次记录还在收尾时先等它写完。
+     */
+    static synchronized MockRecorder open(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        MockRecorder previous = OPEN_RECORDERS.get(path);
+        if (previous != null && !previous.closed) {
+            return previous;
+        }
+        if (previous != null) {
+            previous.awaitClosed();
+        }
+        try {
+            MockRecorder recorder = new MockRecorder(path);
+            OPEN_RECORDERS.put(path, recorder);
+            return recorder;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to open record file: " + path, e);
+        }
+    }
+
+    /**
+     * 关闭不再被任何 mock 引用的记录文件；只通知写线程收尾，不在调用线程上等待 I/O。
+     */
+    static synchronized void closeUnused(Set<MockRecorder> inUse) {
+        Iterator<MockRecorder> iterator = OPEN_RECORDERS.values().iterator();
+        while (iterator.hasNext()) {
+            MockRecorder recorder = iterator.next();
+            if (!inUse.contains(recorder) && !recorder.closed) {
+                recorder.closed = true;
+                LockSupport.unpark(recorder.writer);
+            }
+        }
+    }
+
+    /**
+     * 回放前调用：文件仍在录制时拒绝，上一次录制还在收尾时等它写完。
+     */
+    static synchronized void awaitNotRecording(Path file) {
+        MockRecorder recorder = OPEN_RECORDERS.get(file.toAbsolutePath().normalize());
+        if (recorder == null) {
+            return;
+        }
+        if (!recorder.closed) {
+            throw new IllegalArgumentException("File is still being recorded, clear the record mock first: "
+                    + recorder.path);
+        }
+        recorder.awaitClosed();
+    }
+
+    /**
+     * 同一方法、同一组参数在不同 JVM 上得到相同的键：对 类名#方法名描述符 与参数的 JSON（按字段、Map 键排序）做 FNV-1a 64。
+     */
+    static long key(String methodId, Object[] args) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (methodId + '\n' + canonicalArgs(args)).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 参数的规范 JSON：按字段序列化，Map 键排序，内容相同的参数得到相同的字符串。
+     */
+    static String canonicalArgs(Object[] args) {
+        return args == null || args.length == 0 ? "[]" : JSON.toJSONString(args, KEY_FEATURES);
+    }
+
+    /**
+     * 在业务线程上调用：只做编码和一次 CAS，失败（无法序列化、缓冲区满、已关闭）时静默丢弃。
+     */
+    void record(long key, Object returned, Throwable thrown) {
+        if (closed) {
+            return;
+        }
+        byte kind = thrown == null ? KIND_RETURN : KIND_THROWABLE;
+        byte[] payload;
+        try {
+            payload = thrown == null ? JSONB.toBytes(returned, VALUE_FEATURES)
+                    : JSONB.toBytes(new String[] { thrown.getClass().getName(), thrown.getMessage() });
+        } catch (RuntimeException e) {
+            dropped.increment();
+            logger.debug("Failed to encode recorded result of mock, key: {}", key, e);
+            return;
+        }
+        byte[] frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + 1 + payload.length)
+                .putInt(1 + payload.length).putLong(key).put(kind).put(payload).array();
+        for (;;) {
+            long sequence = head.get();
+            if (sequence - tail >= RING_SIZE) {
+                dropped.increment();
+                return;
+            }
+            if (head.compareAndSet(sequence, sequence + 1)) {
+                ring.set((int) (sequence & RING_MASK), frame);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写线程：按序号取出已发布的记录；序号已被占用但尚未发布时稍等，保证文件内顺序与占位顺序一致。
+     */
+    private void drain() {
+        try {
+            for (;;) {
+                int index = (int) (tail & RING_MASK);
+                byte[] frame = ring.get(index);
+                if (frame == null) {
+                    if (closed && tail == head.get()) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                ring.set(index, null);
+                write(frame);
+                tail = tail + 1;
+                recorded.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            closed = true;
+            logger.warn("Mock recorder stopped, file: {}", path, e);
+        } finally {
+            finish();
+        }
+    }
+
+    private void write(byte[] frame) throws IOException {
+        if (mapped == null || mapped.remaining() < frame.length) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(MAP_CHUNK_BYTES, frame.length));
+        }
+        mapped.put(frame);
+        position += frame.length;
+    }
+
+    private void finish() {
+        try {
+            if (mapped != null) {
+                mapped.force();
+            }
+            // 截掉映射区未写入的尾部；部分平台不允许截断仍被映射的文件，此时保留尾部的 0，读取时同样视为结束
+            channel.truncate(position);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to truncate mock record file: {}", path, e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close mock record file: {}", path, e);
+            }
+        }
+    }
+
+    private void awaitClosed() {
+        try {
+            writer.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String describe() {
+        return path + " (recorded=" + recorded.sum() + ", dropped=" + dropped.sum() + (closed ? ", closed" : "") + ")";
+    }
+
+    Path getPath() {
+        return path;
+    }
+}
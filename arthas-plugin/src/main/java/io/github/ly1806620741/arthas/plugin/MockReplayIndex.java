@@ -0,0 +1,228 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.alibaba.fastjson2.JSONB;
+import com.alibaba.fastjson2.JSONReader;
+
+/**
+ * --replay 的读取端：只读映射 --record 生成的文件，安装时扫描一遍建立 键 -&gt; 记录偏移 的开放寻址索引，
+ * 索引放在堆外的 direct buffer 中，查找为 O(1)；同一键出现多次时以最后一条为准。
+ * <p>
+ * 命中时才从映射区拷出该条记录并按方法的返回类型解码，每次调用得到新的实例。
+ */
+final class MockReplayIndex {
+
+    private static final JSONReader.Feature[] VALUE_FEATURES = {
+            JSONReader.Feature.SupportAutoType, JSONReader.Feature.FieldBased
+    };
+    /** 每个槽位为 [long 键][int 记录偏移]，偏移为 0 表示空槽（记录总在文件头之后） */
+    private static final int SLOT_BYTES = 12;
+
+    /** 同一文件被多个方法回放时只加载一次，文件大小或修改时间变化后重新加载；只在类锁内读写 */
+    private static final Map<Path, MockReplayIndex> LOADED = new HashMap<>();
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final MappedByteBuffer data;
+    private final ByteBuffer slots;
+    private final int mask;
+    private final int count;
+
+    private MockReplayIndex(Path path, long size, long lastModified, MappedByteBuffer data) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.data = data;
+        int frames = countFrames(data);
+        int capacity = Integer.highestOneBit(Math.max(16, frames * 2 - 1)) << 1;
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / SLOT_BYTES) {
+            throw new IllegalArgumentException("Too many records in replay file: " + path);
+        }
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        this.mask = capacity - 1;
+        int distinct = 0;
+        for (int offset = MockRecorder.FILE_HEADER_BYTES; offset < data.limit(); ) {
+            int length = data.getInt(offset);
+            if (length <= 0) {
+                break;
+            }
+            if (put(data.getLong(offset + 4), offset)) {
+                distinct++;
+            }
+            offset += MockRecorder.FRAME_HEADER_BYTES + length;
+        }
+        this.count = distinct;
+    }
+
+    static synchronized MockReplayIndex open(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        try {
+            long size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            MockReplayIndex loaded = LOADED.get(path);
+            if (loaded != null && loaded.size == size && loaded.lastModified == lastModified) {
+                return loaded;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Replay file is larger than 2GB: " + path);
+            }
+            MappedByteBuffer data;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            }
+            if (size < MockRecorder.FILE_HEADER_BYTES || data.getInt(0) != MockRecorder.MAGIC
+                    || data.getInt(4) != MockRecorder.VERSION) {
+                throw new IllegalArgumentException("Not a mock record file: " + path);
+            }
+            MockReplayIndex index = new MockReplayIndex(path, size, lastModified, data);
+            LOADED.put(path, index);
+            return index;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to load replay file: " + path, e);
+        }
+    }
+
+    static synchronized boolean isLoaded(Path file) {
+        return LOADED.containsKey(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * 释放不再被任何 mock 引用的索引；映射区随对象回收解除映射。
+     */
+    static synchronized void releaseUnused(Set<MockReplayIndex> inUse) {
+        LOADED.values().removeIf(index -> !inUse.contains(index));
+    }
+
+    /**
+     * 校验每条记录都完整落在文件内，截断的最后一条不计入。
+     */
+    private static int countFrames(ByteBuffer data) {
+        int frames = 0;
+        int offset = MockRecorder.FILE_HEADER_BYTES;
+        while (offset + MockRecorder.FRAME_HEADER_BYTES <= data.limit()) {
+            int length = data.getInt(offset);
+            if (length <= 0 || length > data.limit() - offset - MockRecorder.FRAME_HEADER_BYTES) {
+                break;
+            }
+            frames++;
+            offset += MockRecorder.FRAME_HEADER_BYTES + length;
+        }
+        data.limit(offset);
+        return frames;
+    }
+
+    private boolean put(long key, int offset) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            int position = slot * SLOT_BYTES;
+            int existing = slots.getInt(position + 8);
+            if (existing == 0 || slots.getLong(position) == key) {
+                slots.putLong(position, key);
+                slots.putInt(position + 8, offset);
+                return existing == 0;
+            }
+        }
+    }
+
+    private int find(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            int position = slot * SLOT_BYTES;
+            int offset = slots.getInt(position + 8);
+            if (offset == 0 || slots.getLong(position) == key) {
+                return offset;
+            }
+        }
+    }
+
+    private int slotOf(long key) {
+        long mixed = key ^ (key >>> 32);
+        mixed *= 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & mask;
+    }
+
+    /**
+     * 未录到该键时返回 null；否则返回解码后的记录，返回值按 returnType 解码，异常按原类名在 loader 中重建。
+     */
+    Recorded lookup(long key, Type returnType, ClassLoader loader) {
+        int offset = find(key);
+        if (offset == 0) {
+            return null;
+        }
+        int length = data.getInt(offset);
+        byte kind = data.get(offset + MockRecorder.FRAME_HEADER_BYTES);
+        byte[] payload = new byte[length - 1];
+        ByteBuffer frame = data.duplicate();
+        frame.position(offset + MockRecorder.FRAME_HEADER_BYTES + 1);
+        frame.get(payload);
+        if (kind == MockRecorder.KIND_THROWABLE) {
+            String[] throwable = JSONB.parseObject(payload, String[].class);
+            return new Recorded(null, newThrowable(throwable[0], throwable[1], loader));
+        }
+        if (returnType == void.class) {
+            return new Recorded(null, null);
+        }
+        return new Recorded(JSONB.parseObject(payload, returnType, VALUE_FEATURES), null);
+    }
+
+    /**
+     * 优先使用 (String) 构造器保留原消息，其次无参构造器；异常类不可见或无法实例化时退化为带原类名的 RuntimeException。
+     */
+    private static Throwable newThrowable(String className, String message, ClassLoader loader) {
+        try {
+            Class<?> clazz = Class.forName(className, false, loader);
+            if (Throwable.class.isAssignableFrom(clazz)) {
+                try {
+                    Constructor<?> constructor = clazz.getConstructor(String.class);
+                    return (Throwable) constructor.newInstance(message);
+                } catch (NoSuchMethodException e) {
+                    return (Throwable) clazz.getConstructor().newInstance();
+                }
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // 落到下面的通用异常
+        }
+        return new RuntimeException(className + (message == null ? "" : ": " + message));
+    }
+
+    int size() {
+        return count;
+    }
+
+    String describe() {
+        return path + " (entries=" + count + ")";
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    static final class Recorded {
+        private final Object returnValue;
+        private final Throwable throwable;
+
+        private Recorded(Object returnValue, Throwable throwable) {
+            this.returnValue = returnValue;
+            this.throwable = throwable;
+        }
+
+        Object getReturnValue() {
+            return returnValue;
+        }
+
+        Throwable getThrowable() {
+            return throwable;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个 mock 方法的调用统计：计数全部使用 LongAdder，高并发下记录不争用同一缓存行。
+ * <p>
+ * 耗时直方图按 HdrHistogram 的思路分桶：每个 2 的幂区间再线性切成 8 个子桶，相对误差不超过 12.5%。
+ */
+final class MockStats {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** 2^40 ns 约 18 分钟，更长的耗时都记在最后一个桶里 */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+    private static final double[] PERCENTILES = { 50.0d, 90.0d, 99.0d, 99.9d };
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    MockStats() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void recordInvocation() {
+        invocations.increment();
+    }
+
+    void recordSkip() {
+        skips.increment();
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordEvaluation(long nanos) {
+        long value = Math.max(nanos, 0L);
+        evaluations.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+        buckets[bucketIndex(value)].increment();
+    }
+
+    String describe() {
+        StringBuilder builder = new StringBuilder()
+                .append("invocations=").append(invocations.sum())
+                .append(", skips=").append(skips.sum())
+                .append(", failures=").append(failures.sum());
+        long count = evaluations.sum();
+        if (count == 0) {
+            return builder.append(", latency(us)=n/a").toString();
+        }
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        builder.append(", latency(us) mean=").append(micros(totalNanos.sum() / (double) count));
+        for (double percentile : PERCENTILES) {
+            builder.append(" p").append(percentile == (long) percentile ? String.valueOf((long) percentile)
+                    : String.valueOf(percentile))
+                    .append('=').append(micros(valueAtPercentile(counts, total, percentile)));
+        }
+        return builder.append(" max=").append(micros(maxNanos.get())).toString();
+    }
+
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶内可能出现的最大值，与 HdrHistogram 的 highestEquivalentValue 对应。
+     */
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        if (index >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowestValueInBucket(index + 1) - 1;
+    }
+
+    private static long lowestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private long valueAtPercentile(long[] counts, long total, double percentile) {
+        long threshold = Math.max(1L, (long) Math.ceil(total * percentile / 100.0d));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return Math.min(highestValueInBucket(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    private static String micros(double nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0d);
+    }
+}
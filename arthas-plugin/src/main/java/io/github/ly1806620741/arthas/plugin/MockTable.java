@@ -0,0 +1,315 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONReader;
+
+/**
+ * --table 响应表：按参数组合查返回值或异常，未命中时执行原方法，也可以配置 default 兜底。
+ * <p>
+ * 文件在安装时只读取、解析一次；每个被 mock 的方法再按自身签名把参数与结果转换为实际类型，建成哈希索引，调用时 O(1) 查找。
+ * 参数全是基本类型、包装类型、字符串或枚举时直接以参数列表为键，否则以参数的规范 JSON 为键。
+ */
+final class MockTable {
+
+    private static final JSONReader.Feature[] AUTO_TYPE_FEATURES = {
+            JSONReader.Feature.SupportAutoType
+    };
+    private static final String ARGS = "args";
+    private static final String RETURN = "return";
+    private static final String THROW = "throw";
+
+    private final Path path;
+    private final JSONArray rows;
+    private final JSONObject defaultRow;
+
+    private MockTable(Path path, JSONArray rows, JSONObject defaultRow) {
+        this.path = path;
+        this.rows = rows;
+        this.defaultRow = defaultRow;
+    }
+
+    /**
+     * 文件可以是 {"rows": [...], "default": {...}}，也可以直接是 rows 数组（未命中时执行原方法）；
+     * 每行为 {"args": [...], "return": ...} 或 {"args": [...], "throw": "类名: 消息"}。
+     */
+    static MockTable read(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        Object parsed;
+        try {
+            parsed = JSON.parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Failed to load --table: " + path + ", " + e.getMessage(), e);
+        }
+        if (parsed instanceof JSONArray) {
+            return new MockTable(path, (JSONArray) parsed, null);
+        }
+        if (!(parsed instanceof JSONObject) || !(((JSONObject) parsed).get("rows") instanceof JSONArray)) {
+            throw new IllegalArgumentException("Invalid --table: " + path + ", expected an array of rows or "
+                    + "{\"rows\": [...], \"default\": {...}}");
+        }
+        JSONObject table = (JSONObject) parsed;
+        Object defaultRow = table.get("default");
+        if (defaultRow != null && !(defaultRow instanceof JSONObject)) {
+            throw new IllegalArgumentException("Invalid --table: " + path + ", default must be an object");
+        }
+        return new MockTable(path, table.getJSONArray("rows"), (JSONObject) defaultRow);
+    }
+
+    /**
+     * 按方法签名转换全部行并建立索引；参数个数、类型或结果无法转换，以及参数重复时拒绝安装。
+     */
+    Index bind(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        boolean valueKeys = true;
+        boolean decimalArgs = false;
+        for (Class<?> parameterType : parameterTypes) {
+            valueKeys &= isValueType(parameterType);
+            decimalArgs |= parameterType == BigDecimal.class;
+        }
+        Map<Object, Row> index = new HashMap<>(Math.max(16, rows.size() * 2));
+        for (int i = 0; i < rows.size(); i++) {
+            Object item = rows.get(i);
+            if (!(item instanceof JSONObject)) {
+                throw invalidRow(i, "row must be an object");
+            }
+            JSONObject row = (JSONObject) item;
+            Object[] args = convertArgs(row, method, i);
+            Object key = key(args, valueKeys, decimalArgs);
+            if (index.put(key, toRow(row, method, i)) != null) {
+                throw invalidRow(i, "duplicate args " + JSON.toJSONString(row.get(ARGS)));
+            }
+        }
+        Row fallback = defaultRow == null ? null : toRow(defaultRow, method, -1);
+        return new Index(this, index, valueKeys, decimalArgs, fallback);
+    }
+
+    /**
+     * BigDecimal 的 equals 与 JSON 都带精度（1.0 与 1.00 不同），表里的值与调用参数都先去掉末尾的 0 再作为键。
+     */
+    private static Object key(Object[] args, boolean valueKeys, boolean decimalArgs) {
+        Object[] keyArgs = args;
+        if (decimalArgs) {
+            keyArgs = args.clone();
+            for (int i = 0; i < keyArgs.length; i++) {
+                if (keyArgs[i] instanceof BigDecimal) {
+                    keyArgs[i] = ((BigDecimal) keyArgs[i]).stripTrailingZeros();
+                }
+            }
+        }
+        return valueKeys ? Arrays.asList(keyArgs) : MockRecorder.canonicalArgs(keyArgs);
+    }
+
+    private Object[] convertArgs(JSONObject row, Method method, int rowIndex) {
+        Type[] parameterTypes = method.getGenericParameterTypes();
+        if (!row.containsKey(ARGS) && parameterTypes.length > 0) {
+            throw invalidRow(rowIndex, "args is required");
+        }
+        Object args = row.get(ARGS);
+        JSONArray values;
+        if (args == null && parameterTypes.length == 0) {
+            values = new JSONArray();
+        } else if (args instanceof JSONArray && ((JSONArray) args).size() == parameterTypes.length) {
+            values = (JSONArray) args;
+        } else if (parameterTypes.length == 1) {
+            // 单参数方法的 args 可以直接写参数值，不必再包一层数组
+            values = new JSONArray();
+            values.add(args);
+        } else {
+            values = args instanceof JSONArray ? (JSONArray) args : new JSONArray();
+        }
+        if (values.size() != parameterTypes.length) {
+            throw invalidRow(rowIndex, "expected " + parameterTypes.length + " args but got " + values.size());
+        }
+        Object[] converted = new Object[values.size()];
+        for (int i = 0; i < converted.length; i++) {
+            try {
+                converted[i] = convert(values.get(i), parameterTypes[i]);
+            } catch (RuntimeException e) {
+                throw invalidRow(rowIndex, "cannot convert arg " + i + " to " + parameterTypes[i].getTypeName());
+            }
+            Class<?> rawType = method.getParameterTypes()[i];
+            if (converted[i] == null && rawType.isPrimitive()) {
+                throw invalidRow(rowIndex, "arg " + i + " is not a valid " + rawType.getName());
+            }
+        }
+        return converted;
+    }
+
+    private Row toRow(JSONObject row, Method method, int rowIndex) {
+        if (row.containsKey(THROW)) {
+            return new Row(null, resolveThrowable(row.get(THROW), method, rowIndex));
+        }
+        if (!row.containsKey(RETURN)) {
+            throw invalidRow(rowIndex, "either return or throw is required");
+        }
+        if (method.getReturnType() == void.class) {
+            return new Row(null, null);
+        }
+        Object value;
+        try {
+            value = convert(row.get(RETURN), method.getGenericReturnType());
+        } catch (RuntimeException e) {
+            throw invalidRow(rowIndex, "cannot convert return to " + method.getGenericReturnType().getTypeName());
+        }
+        if (value == null && method.getReturnType().isPrimitive()) {
+            throw invalidRow(rowIndex, "return is not a valid " + method.getReturnType().getName());
+        }
+        return new Row(value, null);
+    }
+
+    /**
+     * 异常类在安装时按被 mock 类的类加载器解析并取好构造器，调用时只做实例化。
+     */
+    private ThrowableFactory resolveThrowable(Object spec, Method method, int rowIndex) {
+        String className;
+        String message;
+        if (spec instanceof JSONObject) {
+            className = ((JSONObject) spec).getString("class");
+            message = ((JSONObject) spec).getString("message");
+        } else if (spec instanceof String) {
+            String value = ((String) spec).trim();
+            int separator = value.indexOf(':');
+            className = separator < 0 ? value : value.substring(0, separator).trim();
+            message = separator < 0 ? null : value.substring(separator + 1).trim();
+        } else {
+            throw invalidRow(rowIndex, "throw must be \"class: message\" or {\"class\": ..., \"message\": ...}");
+        }
+        if (className == null || className.isEmpty()) {
+            throw invalidRow(rowIndex, "throw requires an exception class");
+        }
+        try {
+            Class<?> clazz = Class.forName(className, false, method.getDeclaringClass().getClassLoader());
+            if (!Throwable.class.isAssignableFrom(clazz)) {
+                throw invalidRow(rowIndex, className + " is not a Throwable");
+            }
+            try {
+                return new ThrowableFactory(clazz.getConstructor(String.class), message);
+            } catch (NoSuchMethodException e) {
+                return new ThrowableFactory(clazz.getConstructor(), null);
+            }
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+            throw invalidRow(rowIndex, "cannot create " + className);
+        }
+    }
+
+    private static Object convert(Object value, Type type) {
+        if (value == null) {
+            return null;
+        }
+        if (type instanceof Class && ((Class<?>) type).isInstance(value)) {
+            return value;
+        }
+        return JSON.parseObject(JSON.toJSONString(value), type, AUTO_TYPE_FEATURES);
+    }
+
+    /**
+     * equals/hashCode 按值比较且与 JSON 转换结果一致的类型；BigDecimal 在 key 里统一精度后同样适用。
+     */
+    private static boolean isValueType(Class<?> type) {
+        return type.isPrimitive() || type == String.class || type.isEnum() || type == Integer.class
+                || type == Long.class || type == Short.class || type == Byte.class || type == Character.class
+                || type == Boolean.class || type == Double.class || type == Float.class || type == BigInteger.class
+                || type == BigDecimal.class;
+    }
+
+    private IllegalArgumentException invalidRow(int rowIndex, String reason) {
+        return new IllegalArgumentException("Invalid --table " + path + (rowIndex < 0 ? " default" : " row " + rowIndex)
+                + ": " + reason);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * 一个方法上的索引，安装后只读，可被多个线程同时查找。
+     */
+    static final class Index {
+        private final MockTable table;
+        private final Map<Object, Row> rows;
+        private final boolean valueKeys;
+        private final boolean decimalArgs;
+        private final Row fallback;
+
+        private Index(MockTable table, Map<Object, Row> rows, boolean valueKeys, boolean decimalArgs, Row fallback) {
+            this.table = table;
+            this.rows = rows;
+            this.valueKeys = valueKeys;
+            this.decimalArgs = decimalArgs;
+            this.fallback = fallback;
+        }
+
+        /**
+         * 未命中且没有 default 时返回 null，调用执行原方法。
+         */
+        Row lookup(Object[] args) {
+            Row row = rows.get(key(args == null ? new Object[0] : args, valueKeys, decimalArgs));
+            return row != null ? row : fallback;
+        }
+
+        String describe() {
+            return table.path + " (rows=" + rows.size() + ", default="
+                    + (fallback == null ? "passthrough" : fallback.throwable != null ? "throw" : "return") + ")";
+        }
+
+        Path getPath() {
+            return table.path;
+        }
+    }
+
+    /**
+     * 命中的一行：返回值在安装时转换好，每次调用返回同一个实例；异常每次调用新建。
+     */
+    static final class Row {
+        private final Object returnValue;
+        private final ThrowableFactory throwable;
+
+        private Row(Object returnValue, ThrowableFactory throwable) {
+            this.returnValue = returnValue;
+            this.throwable = throwable;
+        }
+
+        Object getReturnValue() {
+            return returnValue;
+        }
+
+        Throwable newThrowable() {
+            return throwable == null ? null : throwable.create();
+        }
+    }
+
+    private static final class ThrowableFactory {
+        private final Constructor<?> constructor;
+        private final String message;
+
+        private ThrowableFactory(Constructor<?> constructor, String message) {
+            this.constructor = constructor;
+            this.message = message;
+        }
+
+        private Throwable create() {
+            try {
+                return (Throwable) (constructor.getParameterCount() == 0 ? constructor.newInstance()
+                        : constructor.newInstance(message));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return new IllegalStateException(constructor.getDeclaringClass().getName()
+                        + (message == null ? "" : ": " + message), e);
+            }
+        }
+    }
+}
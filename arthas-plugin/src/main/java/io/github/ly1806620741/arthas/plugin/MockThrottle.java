@@ -0,0 +1,82 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * --ratio / --rate 的放行判断，在增强代码装箱参数、创建 OgnlContext 之前执行，未被选中的调用不产生任何分配；
+ * 配置了 -c、--replay 或 --table 时改在命中之后执行，未命中的调用不消耗配额。
+ * <p>
+ * 限速按 GCRA 实现：只用一个 AtomicLong 记录理论上下一次可放行的时刻，CAS 推进，没有锁也没有定时补充令牌的线程。
+ */
+final class MockThrottle {
+
+    private final double ratio;
+    private final double ratePerSecond;
+    private final long intervalNanos;
+    private final AtomicLong nextAllowedNanos;
+
+    private MockThrottle(double ratio, double ratePerSecond) {
+        this.ratio = ratio;
+        this.ratePerSecond = ratePerSecond;
+        this.intervalNanos = ratePerSecond > 0 ? Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond))
+                : 0L;
+        this.nextAllowedNanos = ratePerSecond > 0 ? new AtomicLong(System.nanoTime()) : null;
+    }
+
+    /**
+     * ratio 不在 (0,1) 且未限速时返回 null，热路径只需判空。
+     */
+    static MockThrottle of(double ratio, double ratePerSecond) {
+        boolean sampled = ratio > 0 && ratio < 1;
+        boolean limited = ratePerSecond > 0;
+        if (!sampled && !limited) {
+            return null;
+        }
+        return new MockThrottle(sampled ? ratio : 1.0d, limited ? ratePerSecond : 0.0d);
+    }
+
+    double getRatio() {
+        return ratio;
+    }
+
+    double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    boolean tryPass() {
+        if (ratio < 1.0d && ThreadLocalRandom.current().nextDouble() >= ratio) {
+            return false;
+        }
+        return nextAllowedNanos == null || tryAcquireToken();
+    }
+
+    /**
+     * 放行间隔均匀为 1/rate 秒，任意一秒内最多放行 rate 次（向上取整）。
+     */
+    private boolean tryAcquireToken() {
+        for (;;) {
+            long now = System.nanoTime();
+            long next = nextAllowedNanos.get();
+            if (now - next < 0) {
+                return false;
+            }
+            if (nextAllowedNanos.compareAndSet(next, now + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    String describe() {
+        StringBuilder builder = new StringBuilder();
+        if (ratio < 1.0d) {
+            builder.append(", ratio=").append(ratio);
+        }
+        if (ratePerSecond > 0) {
+            builder.append(", rate=").append(String.format(Locale.ROOT, "%s/s", ratePerSecond));
+        }
+        return builder.toString();
+    }
+}
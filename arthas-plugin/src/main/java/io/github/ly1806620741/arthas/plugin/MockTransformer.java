@@ -0,0 +1,225 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 在 retransform 的回调里织入分发桩：输入是 JVM 此刻交给本 transformer 的 classfileBuffer，
+ * 先注册的 transformer（如 Arthas watch/trace）当前的改写随输入进入，它们撤销后下一次 retransform 也随之消失，不会被固化进 mock。
+ * <p>
+ * 安装时可以先按缓存的上一次回调输入并行预增强，回调里输入与之一致才直接采用结果，否则就地重新增强；
+ * 撤销登记后再 retransform，回调返回 null，类即还原。只在持有 RETRANSFORM_LOCK 时修改登记。
+ * <p>
+ * 在 Arthas 中经由其 TransformerManager 登记，stop 时随 Arthas 一起撤销；登记全部撤销后本 transformer 立即移除，
+ * 不再让 Instrumentation 持有插件的类加载器，也不会在其它 agent 之后的 retransform 里继续织入。
+ */
+final class MockTransformer implements ClassFileTransformer {
+
+    private static final String ARTHAS_BOOTSTRAP = "com.taobao.arthas.core.server.ArthasBootstrap";
+
+    private static MockTransformer instance;
+
+    private final Map<Class<?>, Target> targets = new ConcurrentHashMap<>();
+    /** 只收集本线程发起的 retransform 的结果；其它命令触发的 retransform 同样按登记织入，但不上报 */
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+    /** Arthas 的 TransformerManager，不在 Arthas 中运行（如单元测试）时为 null，直接登记到 Instrumentation */
+    private final Object transformerManager;
+
+    private MockTransformer(Object transformerManager) {
+        this.transformerManager = transformerManager;
+    }
+
+    static synchronized MockTransformer getInstance(Instrumentation inst) throws ReflectiveOperationException {
+        if (instance == null) {
+            MockTransformer transformer = new MockTransformer(arthasTransformerManager());
+            if (transformer.transformerManager == null) {
+                inst.addTransformer(transformer, true);
+            } else {
+                transformer.transformerManager.getClass().getMethod("addRetransformer", ClassFileTransformer.class)
+                        .invoke(transformer.transformerManager, transformer);
+            }
+            instance = transformer;
+        }
+        return instance;
+    }
+
+    private static Object arthasTransformerManager() {
+        try {
+            Class<?> bootstrapClass = Class.forName(ARTHAS_BOOTSTRAP);
+            Object bootstrap = bootstrapClass.getMethod("getInstance").invoke(null);
+            return bootstrap == null ? null : bootstrapClass.getMethod("getTransformerManager").invoke(bootstrap);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * 登记已全部撤销时移除本 transformer，下次安装重新登记。
+     */
+    private void removeIfIdle(Instrumentation inst) throws ReflectiveOperationException {
+        synchronized (MockTransformer.class) {
+            if (!targets.isEmpty() || instance != this) {
+                return;
+            }
+            instance = null;
+        }
+        if (transformerManager == null) {
+            inst.removeTransformer(this);
+        } else {
+            transformerManager.getClass().getMethod("removeTransformer", ClassFileTransformer.class)
+                    .invoke(transformerManager, this);
+        }
+    }
+
+    /**
+     * 登记新的增强并合并为一次 retransform，返回每个类织入后的字节码。
+     * 回调里就地增强的耗时计入 enhance 阶段，retransform 阶段只剩 JVM 自身的开销。
+     * <p>
+     * 任何一个类织入失败都恢复这批类原来的登记，再 retransform 一次回到原来的字节码，然后抛出该类的原始异常。
+     */
+    Map<Class<?>, byte[]> retransform(Instrumentation inst, Map<Class<?>, Target> newTargets,
+            MockCostMetrics metrics) throws Exception {
+        Map<Class<?>, Target> previousTargets = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, Target> entry : newTargets.entrySet()) {
+            previousTargets.put(entry.getKey(), targets.put(entry.getKey(), entry.getValue()));
+        }
+        Batch batch = new Batch();
+        batches.set(batch);
+        long retransformStart = System.nanoTime();
+        try {
+            inst.retransformClasses(newTargets.keySet().toArray(new Class[0]));
+        } catch (Exception | Error e) {
+            // JVM 拒绝整批时类保持原样，只需恢复登记
+            putAll(previousTargets);
+            removeIfIdle(inst);
+            throw e;
+        } finally {
+            batches.remove();
+            metrics.addPhaseNanos(MockCostMetrics.ENHANCE, batch.enhanceNanos);
+            metrics.addPreEnhancedClasses(batch.preEnhanced);
+            metrics.addPhaseNanos(MockCostMetrics.RETRANSFORM,
+                    System.nanoTime() - retransformStart - batch.enhanceNanos);
+        }
+        Map<Class<?>, byte[]> enhancedClasses = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, Object> entry : batch.transformed.entrySet()) {
+            if (entry.getValue() instanceof byte[]) {
+                enhancedClasses.put(entry.getKey(), (byte[]) entry.getValue());
+                continue;
+            }
+            putAll(previousTargets);
+            inst.retransformClasses(newTargets.keySet().toArray(new Class[0]));
+            removeIfIdle(inst);
+            if (entry.getValue() instanceof Error) {
+                throw (Error) entry.getValue();
+            }
+            throw (Exception) entry.getValue();
+        }
+        return enhancedClasses;
+    }
+
+    /**
+     * 撤销登记并合并为一次 retransform，回调不再织入，类回到其它 transformer 处理后的原始字节码。
+     */
+    void restore(Instrumentation inst, Collection<Class<?>> classes) throws Exception {
+        for (Class<?> clazz : classes) {
+            targets.remove(clazz);
+        }
+        try {
+            inst.retransformClasses(classes.toArray(new Class[0]));
+        } finally {
+            removeIfIdle(inst);
+        }
+    }
+
+    private void putAll(Map<Class<?>, Target> previousTargets) {
+        for (Map.Entry<Class<?>, Target> entry : previousTargets.entrySet()) {
+            if (entry.getValue() == null) {
+                targets.remove(entry.getKey());
+            } else {
+                targets.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        Target target = classBeingRedefined == null ? null : targets.get(classBeingRedefined);
+        if (target == null) {
+            return null;
+        }
+        Batch batch = batches.get();
+        long enhanceStart = System.nanoTime();
+        try {
+            byte[] enhancedBytes = target.takePreEnhanced(classfileBuffer);
+            if (enhancedBytes != null && batch != null) {
+                batch.preEnhanced++;
+            } else if (enhancedBytes == null) {
+                enhancedBytes = AsmMockEnhancer.enhance(classBeingRedefined, classfileBuffer, target.methodIds,
+                        target.returnValues);
+                if (batch != null) {
+                    batch.enhanceNanos += System.nanoTime() - enhanceStart;
+                }
+            }
+            ClassBytesCache.put(classBeingRedefined, classfileBuffer.clone());
+            if (batch != null) {
+                batch.transformed.put(classBeingRedefined, enhancedBytes);
+            }
+            return enhancedBytes;
+        } catch (Exception | Error e) {
+            if (batch != null) {
+                batch.transformed.put(classBeingRedefined, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 本线程一次 retransform 的结果：每个类织入后的字节码或异常，回调里就地增强的累计耗时，以及直接采用预增强结果的类数。
+     */
+    private static final class Batch {
+        private final Map<Class<?>, Object> transformed = new LinkedHashMap<>();
+        private long enhanceNanos;
+        private int preEnhanced;
+    }
+
+    /**
+     * 一个类的织入输入：全部槽位与 --return 常量，以及可选的预增强结果。
+     */
+    static final class Target {
+        private final Map<String, Integer> methodIds;
+        private final Map<String, Object> returnValues;
+        /** 预增强结果只在第一次回调时比对，之后的 retransform 都基于当时的输入重新增强 */
+        private volatile byte[] sourceBytes;
+        private volatile byte[] enhancedBytes;
+
+        /**
+         * @param sourceBytes 预增强所用的字节码，为 null 表示没有预增强，回调里直接增强
+         */
+        Target(Map<String, Integer> methodIds, Map<String, Object> returnValues, byte[] sourceBytes,
+                byte[] enhancedBytes) {
+            this.methodIds = methodIds;
+            this.returnValues = returnValues;
+            this.sourceBytes = sourceBytes;
+            this.enhancedBytes = enhancedBytes;
+        }
+
+        /**
+         * 输入与预增强所用的字节码一致时返回预增强结果，否则返回 null，由回调就地增强。
+         */
+        private byte[] takePreEnhanced(byte[] classfileBuffer) {
+            byte[] source = sourceBytes;
+            byte[] enhanced = enhancedBytes;
+            sourceBytes = null;
+            enhancedBytes = null;
+            return source != null && enhanced != null && Arrays.equals(source, classfileBuffer) ? enhanced : null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.ly1806620741.arthas.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.deps.org.objectweb.asm.ClassReader;
+import com.alibaba.deps.org.objectweb.asm.Opcodes;
+
+/**
+ * ASM 计算栈帧时求公共父类用的类型层次：只读 .class 资源的头部（父类、接口、access），不触发类加载和静态初始化。
+ * <p>
+ * 解析结果按类加载器缓存，加载器为弱引用键；java/ 开头的类型总是由启动类加载器定义，统一缓存在 null 键下供所有加载器共享。
+ */
+final class TypeHierarchy {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final Map<ClassLoader, Map<String, TypeInfo>> CACHE = new WeakHashMap<>();
+
+    private TypeHierarchy() {
+    }
+
+    /**
+     * 与 ClassWriter.getCommonSuperClass 的默认语义一致：存在赋值关系时返回父类型，任一方为接口时返回 Object，
+     * 否则沿 type1 的父类链向上找第一个同时是 type2 父类的类型。
+     */
+    static String getCommonSuperClass(String type1, String type2, ClassLoader classLoader) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        TypeInfo info1 = resolve(type1, classLoader);
+        TypeInfo info2 = resolve(type2, classLoader);
+        if (isAssignableFrom(type1, info1, type2, classLoader)) {
+            return type1;
+        }
+        if (isAssignableFrom(type2, info2, type1, classLoader)) {
+            return type2;
+        }
+        if (info1.isInterface || info2.isInterface) {
+            return OBJECT;
+        }
+        Set<String> superClasses2 = new HashSet<>();
+        for (String current = type2; current != null; current = resolve(current, classLoader).superName) {
+            superClasses2.add(current);
+        }
+        for (String current = info1.superName; current != null; current = resolve(current, classLoader).superName) {
+            if (superClasses2.contains(current)) {
+                return current;
+            }
+        }
+        return OBJECT;
+    }
+
+    private static boolean isAssignableFrom(String type, TypeInfo info, String subType, ClassLoader classLoader) {
+        if (OBJECT.equals(type)) {
+            return true;
+        }
+        for (String current = subType; current != null; ) {
+            if (current.equals(type)) {
+                return true;
+            }
+            TypeInfo currentInfo = resolve(current, classLoader);
+            if (info.isInterface && implementsInterface(currentInfo, type, classLoader)) {
+                return true;
+            }
+            current = currentInfo.superName;
+        }
+        return false;
+    }
+
+    private static boolean implementsInterface(TypeInfo info, String interfaceName, ClassLoader classLoader) {
+        for (String candidate : info.interfaces) {
+            if (candidate.equals(interfaceName)
+                    || implementsInterface(resolve(candidate, classLoader), interfaceName, classLoader)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TypeInfo resolve(String internalName, ClassLoader classLoader) {
+        ClassLoader definingLoader = internalName.startsWith("java/") ? null : classLoader;
+        Map<String, TypeInfo> types = typesOf(definingLoader);
+        TypeInfo info = types.get(internalName);
+        if (info == null) {
+            info = read(internalName, definingLoader);
+            types.put(internalName, info);
+        }
+        return info;
+    }
+
+    private static Map<String, TypeInfo> typesOf(ClassLoader classLoader) {
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(classLoader, key -> new ConcurrentHashMap<>());
+        }
+    }
+
+    private static TypeInfo read(String internalName, ClassLoader classLoader) {
+        String resourceName = internalName + ".class";
+        InputStream inputStream = classLoader != null
+                ? classLoader.getResourceAsStream(resourceName)
+                : ClassLoader.getSystemResourceAsStream(resourceName);
+        if (inputStream != null) {
+            try (InputStream in = inputStream) {
+                ClassReader classReader = new ClassReader(in);
+                return new TypeInfo(classReader.getSuperName(), classReader.getInterfaces(),
+                        (classReader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+            } catch (IOException | RuntimeException e) {
+                // 资源不可读或格式不识别时退回到已加载的 Class
+            }
+        }
+        return load(internalName, classLoader);
+    }
+
+    /**
+     * 动态生成的类没有 .class 资源，这类类型一定已经被加载过，此时 Class.forName 只是查找，不会初始化。
+     */
+    private static TypeInfo load(String internalName, ClassLoader classLoader) {
+        try {
+            Class<?> clazz = Class.forName(internalName.replace('/', '.'), false,
+                    classLoader != null ? classLoader : ClassLoader.getSystemClassLoader());
+            Class<?> superClass = clazz.getSuperclass();
+            Class<?>[] interfaces = clazz.getInterfaces();
+            String[] interfaceNames = new String[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceNames[i] = interfaces[i].getName().replace('.', '/');
+            }
+            return new TypeInfo(superClass == null ? null : superClass.getName().replace('.', '/'), interfaceNames,
+                    clazz.isInterface());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to resolve type hierarchy for " + internalName, e);
+        }
+    }
+
+    private static final class TypeInfo {
+
+        private final String superName;
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        private TypeInfo(String superName, String[] interfaces, boolean isInterface) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+}
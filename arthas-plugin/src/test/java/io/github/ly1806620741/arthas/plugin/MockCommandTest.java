@@ -1,16 +1,33 @@
 package io.github.ly1806620741.arthas.plugin;
 
 import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.CodeSource;
+import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarFile;
 
 import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.command.express.ExpressException;
+import com.taobao.arthas.core.command.model.EnhancerModel;
+import com.taobao.arthas.core.command.model.ResultModel;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.cglib.proxy.Enhancer;
 import org.springframework.cglib.proxy.MethodInterceptor;
@@ -20,7 +37,9 @@ import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.session.Session;
 
 import demo.MathGame;
+import io.github.ly1806620741.arthas.OgnlContext;
 import net.bytebuddy.agent.ByteBuddyAgent;
+import ognl.OgnlRuntime;
 import com.taobao.middleware.cli.annotations.Description;
 
 public class MockCommandTest {
@@ -209,6 +228,621 @@ public class MockCommandTest {
         Assertions.assertEquals("mock-second", target.second());
     }
 
+    @Test
+    @DisplayName("测试只配置 afterOgnl 时默认跳过原方法，-b 设置 skip=false 后表达式可基于原返回值修改")
+    void testAfterOnlyMockSkipsOriginalMethod() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        AfterOnlyTarget target = new AfterOnlyTarget();
+        MockCommand mockCommand = buildAfterMockCommand(AfterOnlyTarget.class.getName(), "next",
+                "#this.returnObj=100");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals(100, target.next());
+        Assertions.assertEquals(0, target.invocations);
+
+        CommandProcess passThroughProcess = mockCommandProcess(instrumentation);
+        MockCommand passThroughCommand = buildAfterMockCommand(AfterOnlyTarget.class.getName(), "next",
+                "#this.returnObj=#this.originReturnObj + 100");
+        passThroughCommand.setBeforeOgnl("#this.skip=false");
+        passThroughCommand.process(passThroughProcess);
+
+        Mockito.verify(passThroughProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals(101, target.next());
+        Assertions.assertEquals(102, target.next());
+        Assertions.assertEquals(2, target.invocations);
+    }
+
+    @Test
+    @DisplayName("测试基本类型返回值可被 afterOgnl 修改，未修改时原值透传")
+    void testPrimitiveReturnCanBeOverriddenByAfterOgnl() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        PrimitiveReturnTarget target = new PrimitiveReturnTarget();
+        MockCommand mockCommand = buildAfterMockCommand(PrimitiveReturnTarget.class.getName(), "price",
+                "#this.params[0] > 10L ? (#this.returnObj=#this.originReturnObj * 2L) : null");
+        mockCommand.setBeforeOgnl("#this.skip=false");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals(3L, target.price(1L));
+        Assertions.assertEquals(44L, target.price(20L));
+    }
+
+    @Test
+    @DisplayName("测试 -n 限定生效次数，用完后自动恢复原方法")
+    void testLimitExpiresMockAfterInvocations() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        LimitTarget target = new LimitTarget();
+        MockCommand mockCommand = buildAfterMockCommand(LimitTarget.class.getName(), "name",
+                "#this.returnObj=new java.lang.String('limited')");
+        mockCommand.setNumberOfLimit(2);
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("limited", target.name());
+        Assertions.assertEquals("limited", target.name());
+        Assertions.assertEquals("origin", target.name());
+        Assertions.assertEquals("origin", target.name());
+    }
+
+    @Test
+    @DisplayName("测试 --ttl 到期后由后台调度自动恢复原方法")
+    void testTtlExpiresMockInBackground() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        TtlTarget target = new TtlTarget();
+        MockCommand mockCommand = buildAfterMockCommand(TtlTarget.class.getName(), "name",
+                "#this.returnObj=new java.lang.String('timed')");
+        mockCommand.setTtl("300ms");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("timed", target.name());
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!"origin".equals(target.name()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        Assertions.assertEquals("origin", target.name());
+    }
+
+    @Test
+    @DisplayName("测试 --ttl 格式非法时拒绝安装")
+    void testInvalidTtlIsRejected() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        MockCommand mockCommand = buildAfterMockCommand(TtlTarget.class.getName(), "name",
+                "#this.returnObj=new java.lang.String('timed')");
+        mockCommand.setTtl("soon");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(-1), Mockito.contains("Invalid --ttl"));
+    }
+
+    @Test
+    @DisplayName("测试 --rate 限速，超出配额的调用直接执行原方法")
+    void testRateLimitsMockActivation() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        RateTarget target = new RateTarget();
+        MockCommand mockCommand = buildMockCommand(RateTarget.class.getName(), "name",
+                "#this.returnObj=new java.lang.String('throttled')");
+        mockCommand.setRate("1/m");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("throttled", target.name());
+        Assertions.assertEquals("origin", target.name());
+        Assertions.assertEquals("origin", target.name());
+    }
+
+    @Test
+    @DisplayName("测试 --rate 与 -c 组合时只有满足条件的调用消耗配额")
+    void testRateIsOnlySpentByMatchingCalls() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        RateConditionTarget target = new RateConditionTarget();
+        MockCommand mockCommand = buildMockCommand(RateConditionTarget.class.getName(), "find",
+                "#this.returnObj=new java.lang.String('vip')");
+        mockCommand.setConditionExpress("params[0] == 1001L");
+        mockCommand.setRate("1/m");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("user-1", target.find(1L));
+        Assertions.assertEquals("user-2", target.find(2L));
+        Assertions.assertEquals("vip", target.find(1001L));
+        Assertions.assertEquals("user-1001", target.find(1001L));
+    }
+
+    @Test
+    @DisplayName("测试 --ratio 超出 (0, 1] 时拒绝安装")
+    void testInvalidRatioIsRejected() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        MockCommand mockCommand = buildMockCommand(RateTarget.class.getName(), "name",
+                "#this.returnObj=new java.lang.String('throttled')");
+        mockCommand.setRatio(1.5d);
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(-1), Mockito.contains("Invalid --ratio"));
+    }
+
+    @Test
+    @DisplayName("测试 -c 条件只对命中的参数生效，未命中时执行原方法")
+    void testConditionLimitsMockToMatchingArguments() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        ConditionTarget target = new ConditionTarget();
+        MockCommand mockCommand = buildMockCommand(ConditionTarget.class.getName(), "find",
+                "#this.returnObj=new java.lang.String('vip'),#this.skip=true");
+        mockCommand.setConditionExpress("params[0] == 1001L");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("user-1", target.find(1L));
+        Assertions.assertEquals("vip", target.find(1001L));
+        Assertions.assertEquals(1, target.invocations);
+    }
+
+    @Test
+    @DisplayName("测试 --file 批量安装多个类的 mock，--export 导出的文件可再次导入")
+    void testScenarioFileInstallsAllMocksAndExportsThem() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path scenario = Files.createTempFile("mock-scenario", ".json");
+        Path exported = Files.createTempFile("mock-export", ".json");
+        try {
+            Files.write(scenario, ("[{\"class\":\"" + ScenarioTargetA.class.getName() + "\",\"method\":\"name\","
+                    + "\"beforeOgnl\":\"#this.returnObj=new java.lang.String('scenario-a')\"},"
+                    + "{\"class\":\"" + ScenarioTargetB.class.getName() + "\",\"method\":\"code\","
+                    + "\"beforeOgnl\":\"#this.skip=false\","
+                    + "\"afterOgnl\":\"#this.returnObj=#this.originReturnObj + 1\",\"limits\":5}]")
+                    .getBytes(StandardCharsets.UTF_8));
+            MockCommand fileCommand = new MockCommand();
+            fileCommand.setScenarioFile(scenario.toString());
+            CommandProcess fileProcess = mockCommandProcess(instrumentation);
+
+            fileCommand.process(fileProcess);
+
+            Mockito.verify(fileProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+            Assertions.assertEquals("scenario-a", new ScenarioTargetA().name());
+            Assertions.assertEquals(42, new ScenarioTargetB().code());
+
+            MockCommand exportCommand = new MockCommand();
+            exportCommand.setExportFile(exported.toString());
+            CommandProcess exportProcess = mockCommandProcess(instrumentation);
+
+            exportCommand.process(exportProcess);
+
+            Mockito.verify(exportProcess).end(Mockito.eq(0), Mockito.startsWith("Exported "));
+            String content = new String(Files.readAllBytes(exported), StandardCharsets.UTF_8);
+            Assertions.assertTrue(content.contains(ScenarioTargetA.class.getName()), content);
+            Assertions.assertTrue(content.contains("\"limits\":4"), content);
+            List<MockCommand> definitions = MockCommand.loadScenario(exported);
+            Assertions.assertTrue(definitions.stream()
+                    .anyMatch(definition -> "code".equals(definition.getMethodPattern())
+                            && "()I".equals(definition.getMethodDescriptor())
+                            && definition.getNumberOfLimit() == 4));
+        } finally {
+            Files.deleteIfExists(scenario);
+            Files.deleteIfExists(exported);
+        }
+    }
+
+    @Test
+    @DisplayName("测试 --file 中任一定义非法时整批拒绝安装，前面合法的定义也不生效")
+    void testScenarioFileWithInvalidDefinitionInstallsNothing() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path scenario = Files.createTempFile("mock-scenario", ".json");
+        try {
+            Files.write(scenario, ("[{\"class\":\"" + PartialScenarioTargetA.class.getName() + "\",\"method\":\"name\","
+                    + "\"beforeOgnl\":\"#this.returnObj=new java.lang.String('scenario-a')\"},"
+                    + "{\"class\":\"" + PartialScenarioTargetB.class.getName() + "\",\"method\":\"name\","
+                    + "\"beforeOgnl\":\"#this.returnObj=\"}]").getBytes(StandardCharsets.UTF_8));
+            MockCommand fileCommand = new MockCommand();
+            fileCommand.setScenarioFile(scenario.toString());
+            CommandProcess fileProcess = mockCommandProcess(instrumentation);
+
+            fileCommand.process(fileProcess);
+
+            Mockito.verify(fileProcess).end(Mockito.eq(-1), Mockito.anyString());
+            Assertions.assertEquals("origin", new PartialScenarioTargetA().name());
+            Assertions.assertTrue(MockCommand.OgnlMockAdvice.describeMocks(false).stream()
+                    .noneMatch(line -> line.contains(PartialScenarioTargetA.class.getName())));
+        } finally {
+            Files.deleteIfExists(scenario);
+        }
+    }
+
+    @Test
+    @DisplayName("测试通配符匹配多个类时并行增强，所有类一次性生效")
+    void testWildcardPatternEnhancesAllMatchedClasses() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        MockCommand mockCommand = buildMockCommand(MockCommandTest.class.getName() + "$WideTarget*", "name",
+                "#this.returnObj=new java.lang.String('wide')");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("wide", new WideTargetA().name());
+        Assertions.assertEquals("wide", new WideTargetB().name());
+        Assertions.assertEquals("wide", new WideTargetC().name());
+    }
+
+    @Test
+    @DisplayName("测试 --clear 后再次 mock 同一方法只更新注册表；--clear-all 还原后重新增强，同一方法沿用原槽位")
+    void testRemockAfterClearReusesDispatchStub() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+
+        buildMockCommand(RemockTarget.class.getName(), "name", "#this.returnObj=new java.lang.String('first')")
+                .process(mockCommandProcess(instrumentation));
+        Assertions.assertEquals("first", new RemockTarget().name());
+        Integer mockId = MockCommand.OgnlMockAdvice.getMockedMethodIds(RemockTarget.class)
+                .get("name()Ljava/lang/String;");
+        AtomicInteger retransforms = new AtomicInteger();
+        ClassFileTransformer counter = countingTransformer(RemockTarget.class, retransforms);
+        instrumentation.addTransformer(counter, true);
+        try {
+            MockCommand clearCommand = new MockCommand();
+            clearCommand.setClassPattern(RemockTarget.class.getName());
+            clearCommand.setMethodPattern("name");
+            clearCommand.setClear(true);
+            clearCommand.process(mockCommandProcess(instrumentation));
+            Assertions.assertEquals("origin", new RemockTarget().name());
+
+            CommandProcess commandProcess = mockCommandProcess(instrumentation);
+            buildMockCommand(RemockTarget.class.getName(), "name", "#this.returnObj=new java.lang.String('second')")
+                    .process(commandProcess);
+            Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+            Assertions.assertEquals("second", new RemockTarget().name());
+            Assertions.assertEquals(0, retransforms.get());
+
+            MockCommand clearAllCommand = new MockCommand();
+            clearAllCommand.setClearAll(true);
+            clearAllCommand.process(mockCommandProcess(instrumentation));
+            Assertions.assertEquals("origin", new RemockTarget().name());
+            Assertions.assertEquals(1, retransforms.get());
+        } finally {
+            instrumentation.removeTransformer(counter);
+        }
+
+        buildMockCommand(RemockTarget.class.getName(), "name", "#this.returnObj=new java.lang.String('third')")
+                .process(mockCommandProcess(instrumentation));
+        Assertions.assertEquals("third", new RemockTarget().name());
+        Assertions.assertEquals(mockId, MockCommand.OgnlMockAdvice.getMockedMethodIds(RemockTarget.class)
+                .get("name()Ljava/lang/String;"));
+    }
+
+    @Test
+    @DisplayName("测试分支合并不同子类型的方法增强后栈帧正确，公共父类按字节码解析")
+    void testEnhanceMethodMergingSiblingTypes() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        MockCommand mockCommand = buildAfterMockCommand(HierarchyTarget.class.getName(), "pick",
+                "#this.returnObj=#this.returnObj.getClass().getSimpleName()");
+        mockCommand.setBeforeOgnl("#this.skip=false");
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("HierarchyLeft", new HierarchyTarget().pick(true));
+        Assertions.assertEquals("HierarchyRight", new HierarchyTarget().pick(false));
+    }
+
+    @Test
+    @DisplayName("测试安装结果中带有各阶段耗时与改写的类数、字节数")
+    void testInstallReportsPhaseCost() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        buildMockCommand(CostTarget.class.getName(), "name", "#this.returnObj=new java.lang.String('cost')")
+                .process(commandProcess);
+
+        ArgumentCaptor<ResultModel> result = ArgumentCaptor.forClass(ResultModel.class);
+        Mockito.verify(commandProcess).appendResult(result.capture());
+        String message = ((EnhancerModel) result.getValue()).getMessage();
+        Assertions.assertTrue(message.startsWith("Mock installed."), message);
+        Assertions.assertTrue(message.contains("search="), message);
+        Assertions.assertTrue(message.contains("enhance="), message);
+        Assertions.assertTrue(message.contains("retransform="), message);
+        Assertions.assertTrue(message.contains("classes=1, bytes="), message);
+        Assertions.assertEquals("cost", new CostTarget().name());
+    }
+
+    @Test
+    @DisplayName("测试已增强的多个类再增强时并行预增强，回调输入一致时直接采用预增强结果")
+    void testReEnhanceUsesParallelPreEnhancedBytes() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        PreEnhanceTargetA targetA = new PreEnhanceTargetA();
+        PreEnhanceTargetB targetB = new PreEnhanceTargetB();
+        String classPattern = MockCommandTest.class.getName().replace(".", "\\.") + "\\$PreEnhanceTarget[AB]";
+        MockCommand firstCommand = buildMockCommand(classPattern, "first",
+                "#this.returnObj=new java.lang.String('first')");
+        firstCommand.setRegEx(true);
+        firstCommand.process(mockCommandProcess(instrumentation));
+
+        MockCommand secondCommand = buildMockCommand(classPattern, "second",
+                "#this.returnObj=new java.lang.String('second')");
+        secondCommand.setRegEx(true);
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+        secondCommand.process(commandProcess);
+
+        ArgumentCaptor<ResultModel> result = ArgumentCaptor.forClass(ResultModel.class);
+        Mockito.verify(commandProcess).appendResult(result.capture());
+        String message = ((EnhancerModel) result.getValue()).getMessage();
+        Assertions.assertTrue(message.contains("classes=2, bytes="), message);
+        Assertions.assertTrue(message.contains("pre-enhanced=2"), message);
+        Assertions.assertEquals("first", targetA.first());
+        Assertions.assertEquals("second", targetB.second());
+    }
+
+    @Test
+    @DisplayName("测试首次 mock 一个类只触发一次 retransform，在回调里基于当前字节码织入")
+    void testFirstInstallRetransformsOnce() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        AtomicInteger retransforms = new AtomicInteger();
+        ClassFileTransformer counter = countingTransformer(SingleRetransformTarget.class, retransforms);
+        instrumentation.addTransformer(counter, true);
+        try {
+            CommandProcess commandProcess = mockCommandProcess(instrumentation);
+            buildMockCommand(SingleRetransformTarget.class.getName(), "name",
+                    "#this.returnObj=new java.lang.String('once')").process(commandProcess);
+
+            Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+            Assertions.assertEquals("once", new SingleRetransformTarget().name());
+            Assertions.assertEquals(1, retransforms.get());
+        } finally {
+            instrumentation.removeTransformer(counter);
+        }
+    }
+
+    @Test
+    @DisplayName("测试常见 mock 写法编译执行，其它写法回退到 OGNL 且结果一致")
+    void testSimpleExpressionsAreCompiled() throws Throwable {
+        Assertions.assertTrue(MockExpression.compile("#this.returnObj=#this.json").isCompiled());
+        Assertions.assertTrue(MockExpression.compile("#this.params[0]='x',#this.skip=false").isCompiled());
+        Assertions.assertTrue(
+                MockExpression.compile("#this.throwExp=new java.lang.IllegalStateException('boom')").isCompiled());
+        Assertions.assertFalse(MockExpression.compile("#this.returnObj=#this.params[0].toString()").isCompiled());
+
+        Instrumentation instrumentation = installInstrumentation();
+        GlobalOptions.strict = false;
+        try {
+            buildMockCommand(CompiledTarget.class.getName(), "name",
+                    "#this.throwExp=new java.lang.IllegalStateException('compiled')")
+                    .process(mockCommandProcess(instrumentation));
+            IllegalStateException thrown = Assertions.assertThrows(IllegalStateException.class,
+                    () -> new CompiledTarget().name());
+            Assertions.assertEquals("compiled", thrown.getMessage());
+        } finally {
+            GlobalOptions.strict = true;
+        }
+    }
+
+    @Test
+    @DisplayName("测试 --return 直接返回常量，strict 下也可安装，--clear 后恢复原方法")
+    void testReturnConstantMock() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        buildReturnMockCommand(ReturnTarget.class.getName(), "enabled", "true")
+                .process(mockCommandProcess(instrumentation));
+        buildReturnMockCommand(ReturnTarget.class.getName(), "name", "fixed")
+                .process(mockCommandProcess(instrumentation));
+        buildReturnMockCommand(ReturnTarget.class.getName(), "user", "{\"name\":\"json\"}")
+                .process(mockCommandProcess(instrumentation));
+
+        Assertions.assertTrue(new ReturnTarget().enabled());
+        Assertions.assertEquals("fixed", new ReturnTarget().name());
+        Assertions.assertEquals("json", new ReturnTarget().user().name);
+
+        MockCommand invalidCommand = buildReturnMockCommand(ReturnTarget.class.getName(), "enabled", "true");
+        invalidCommand.setBeforeOgnl("#this.returnObj=false");
+        CommandProcess invalidProcess = mockCommandProcess(instrumentation);
+        invalidCommand.process(invalidProcess);
+        Mockito.verify(invalidProcess).end(Mockito.eq(-1), Mockito.contains("--return cannot be combined"));
+
+        MockCommand clearCommand = new MockCommand();
+        clearCommand.setClassPattern(ReturnTarget.class.getName());
+        clearCommand.setMethodPattern("enabled");
+        clearCommand.setClear(true);
+        clearCommand.process(mockCommandProcess(instrumentation));
+        Assertions.assertFalse(new ReturnTarget().enabled());
+        Assertions.assertEquals("origin", new ReturnTarget().name());
+    }
+
+    @Test
+    @DisplayName("测试 --return 的字符串超出常量池 65535 字节上限时改从槽位读取，仍返回原值")
+    void testOversizedReturnStringFallsBackToHolder() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        // 40000 个双字节字符，modified UTF-8 为 80000 字节，无法用 LDC 内联
+        String oversized = String.join("", Collections.nCopies(40000, "\u00e9"));
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+        buildReturnMockCommand(OversizedReturnTarget.class.getName(), "name", oversized).process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals(oversized, new OversizedReturnTarget().name());
+    }
+
+    @Test
+    @DisplayName("测试 --delay 在原方法执行前注入延迟且不改变返回值，非法分布拒绝安装")
+    void testDelayMock() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        MockCommand delayCommand = new MockCommand();
+        delayCommand.setClassPattern(DelayTarget.class.getName());
+        delayCommand.setMethodPattern("name");
+        delayCommand.setDelay("uniform(30ms,40ms)");
+        delayCommand.process(mockCommandProcess(instrumentation));
+
+        long start = System.nanoTime();
+        Assertions.assertEquals("origin", new DelayTarget().name());
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+
+        MockCommand invalidCommand = new MockCommand();
+        invalidCommand.setClassPattern(DelayTarget.class.getName());
+        invalidCommand.setMethodPattern("name");
+        invalidCommand.setDelay("uniform(40ms,30ms)");
+        CommandProcess invalidProcess = mockCommandProcess(instrumentation);
+        invalidCommand.process(invalidProcess);
+        Mockito.verify(invalidProcess).end(Mockito.eq(-1), Mockito.contains("Invalid --delay"));
+    }
+
+    @Test
+    @DisplayName("测试 --record 录制真实结果，--clear 后用 --replay 按参数回放，未录到的参数执行原方法")
+    void testRecordReplayMock() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path recordFile = Files.createTempFile("mock-record", ".rec");
+        try {
+            MockCommand recordCommand = new MockCommand();
+            recordCommand.setClassPattern(RecordTarget.class.getName());
+            recordCommand.setMethodPattern("echo");
+            recordCommand.setRecordFile(recordFile.toString());
+            recordCommand.process(mockCommandProcess(instrumentation));
+            RecordTarget.suffix = "-recorded";
+            Assertions.assertEquals("a-recorded", new RecordTarget().echo("a"));
+
+            MockCommand clearCommand = new MockCommand();
+            clearCommand.setClassPattern(RecordTarget.class.getName());
+            clearCommand.setMethodPattern("echo");
+            clearCommand.setClear(true);
+            clearCommand.process(mockCommandProcess(instrumentation));
+
+            MockCommand replayCommand = new MockCommand();
+            replayCommand.setClassPattern(RecordTarget.class.getName());
+            replayCommand.setMethodPattern("echo");
+            replayCommand.setReplayFile(recordFile.toString());
+            replayCommand.process(mockCommandProcess(instrumentation));
+            RecordTarget.suffix = "-live";
+            Assertions.assertEquals("a-recorded", new RecordTarget().echo("a"));
+            Assertions.assertEquals("b-live", new RecordTarget().echo("b"));
+
+            MockCommand invalidCommand = new MockCommand();
+            invalidCommand.setClassPattern(RecordTarget.class.getName());
+            invalidCommand.setMethodPattern("echo");
+            invalidCommand.setRecordFile(recordFile.toString());
+            invalidCommand.setReplayFile(recordFile.toString());
+            CommandProcess invalidProcess = mockCommandProcess(instrumentation);
+            invalidCommand.process(invalidProcess);
+            Mockito.verify(invalidProcess).end(Mockito.eq(-1), Mockito.contains("cannot be used together"));
+
+            clearCommand.process(mockCommandProcess(instrumentation));
+        } finally {
+            Files.deleteIfExists(recordFile);
+        }
+    }
+
+    @Test
+    @DisplayName("测试 --record 按入口参数判断条件、计算录制键，方法内修改入参后仍能按原参数回放")
+    void testRecordKeyUsesEntryArguments() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path recordFile = Files.createTempFile("mock-record", ".rec");
+        try {
+            MockCommand recordCommand = new MockCommand();
+            recordCommand.setClassPattern(RecordTarget.class.getName());
+            recordCommand.setMethodPattern("first");
+            recordCommand.setConditionExpress("params[0].size()==2");
+            recordCommand.setRecordFile(recordFile.toString());
+            recordCommand.process(mockCommandProcess(instrumentation));
+            RecordTarget.suffix = "-recorded";
+            Assertions.assertEquals("a-recorded", new RecordTarget().first(new ArrayList<>(Arrays.asList("a", "b"))));
+
+            MockCommand clearCommand = new MockCommand();
+            clearCommand.setClassPattern(RecordTarget.class.getName());
+            clearCommand.setMethodPattern("first");
+            clearCommand.setClear(true);
+            clearCommand.process(mockCommandProcess(instrumentation));
+
+            MockCommand replayCommand = new MockCommand();
+            replayCommand.setClassPattern(RecordTarget.class.getName());
+            replayCommand.setMethodPattern("first");
+            replayCommand.setReplayFile(recordFile.toString());
+            replayCommand.process(mockCommandProcess(instrumentation));
+            RecordTarget.suffix = "-live";
+            Assertions.assertEquals("a-recorded", new RecordTarget().first(new ArrayList<>(Arrays.asList("a", "b"))));
+            Assertions.assertEquals("b-live", new RecordTarget().first(new ArrayList<>(Arrays.asList("b"))));
+
+            clearCommand.process(mockCommandProcess(instrumentation));
+        } finally {
+            Files.deleteIfExists(recordFile);
+        }
+    }
+
+    @Test
+    @DisplayName("测试 --table 按参数查响应表返回值或抛异常，未命中的参数执行原方法")
+    void testTableMock() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path tableFile = Files.createTempFile("mock-table", ".json");
+        try {
+            Files.write(tableFile, ("{\"rows\": ["
+                    + "{\"args\": [1], \"return\": \"one\"},"
+                    + "{\"args\": [2], \"throw\": \"java.lang.IllegalStateException: two\"}"
+                    + "]}").getBytes(StandardCharsets.UTF_8));
+            MockCommand tableCommand = new MockCommand();
+            tableCommand.setClassPattern(TableTarget.class.getName());
+            tableCommand.setMethodPattern("name");
+            tableCommand.setTableFile(tableFile.toString());
+            tableCommand.process(mockCommandProcess(instrumentation));
+
+            Assertions.assertEquals("one", new TableTarget().name(1));
+            IllegalStateException thrown = Assertions.assertThrows(IllegalStateException.class,
+                    () -> new TableTarget().name(2));
+            Assertions.assertEquals("two", thrown.getMessage());
+            Assertions.assertEquals("origin-3", new TableTarget().name(3));
+
+            MockCommand invalidCommand = new MockCommand();
+            invalidCommand.setClassPattern(TableTarget.class.getName());
+            invalidCommand.setMethodPattern("name");
+            invalidCommand.setTableFile(tableFile.toString());
+            invalidCommand.setDelay("10ms");
+            CommandProcess invalidProcess = mockCommandProcess(instrumentation);
+            invalidCommand.process(invalidProcess);
+            Mockito.verify(invalidProcess).end(Mockito.eq(-1), Mockito.contains("cannot be combined"));
+        } finally {
+            Files.deleteIfExists(tableFile);
+        }
+    }
+
+    @Test
+    @DisplayName("测试 --table 的 BigDecimal 参数按数值匹配，1.0 与 1.00 命中同一行")
+    void testTableMockMatchesBigDecimalByValue() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        Path tableFile = Files.createTempFile("mock-table", ".json");
+        try {
+            Files.write(tableFile, "[{\"args\": [1.0], \"return\": \"one\"}]".getBytes(StandardCharsets.UTF_8));
+            MockCommand tableCommand = new MockCommand();
+            tableCommand.setClassPattern(TableTarget.class.getName());
+            tableCommand.setMethodPattern("price");
+            tableCommand.setTableFile(tableFile.toString());
+            tableCommand.process(mockCommandProcess(instrumentation));
+
+            Assertions.assertEquals("one", new TableTarget().price(new BigDecimal("1.00")));
+            Assertions.assertEquals("one", new TableTarget().price(BigDecimal.ONE));
+            Assertions.assertEquals("origin-1.01", new TableTarget().price(new BigDecimal("1.01")));
+        } finally {
+            Files.deleteIfExists(tableFile);
+        }
+    }
+
     @Test
     @DisplayName("测试 --list 能查看当前 mock 列表")
     void testListMocks() throws Throwable {
@@ -228,6 +862,31 @@ public class MockCommandTest {
         Assertions.assertEquals("listed", new ListTarget().name());
     }
 
+    @Test
+    @DisplayName("测试 --list --stats 输出调用次数、跳过次数与耗时分位")
+    void testListMocksWithStats() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+
+        buildMockCommand(StatsTarget.class.getName(), "name", "#this.returnObj=new java.lang.String('stats')")
+                .process(mockCommandProcess(instrumentation));
+        StatsTarget target = new StatsTarget();
+        Assertions.assertEquals("stats", target.name());
+        Assertions.assertEquals("stats", target.name());
+
+        MockCommand listCommand = new MockCommand();
+        listCommand.setList(true);
+        listCommand.setStats(true);
+        CommandProcess listProcess = mockCommandProcess(instrumentation);
+
+        listCommand.process(listProcess);
+
+        ArgumentCaptor<String> message = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(listProcess).end(Mockito.eq(0), message.capture());
+        String statsLine = message.getValue().substring(message.getValue().indexOf(StatsTarget.class.getName()));
+        Assertions.assertTrue(statsLine.contains("invocations=2, skips=2, failures=0, latency(us) mean="), statsLine);
+        Assertions.assertTrue(statsLine.contains(" p99="), statsLine);
+    }
+
     @Test
     @DisplayName("测试 spring cglib 代理类名可以正常 mock")
     void testSpringCglibProxyClassCanBeMocked() throws Throwable {
@@ -288,6 +947,72 @@ public class MockCommandTest {
         Assertions.assertEquals("name", new ListTarget().name());
     }
 
+    @Test
+    @DisplayName("测试 strict 与非 strict 求值并发执行时互不影响，也不改写全局 strict")
+    void testStrictAndNonStrictEvaluationsDoNotInterfere() throws Throwable {
+        MockExpression expression = MockExpression.compile("#this.params[0].name='mocked'");
+        Assertions.assertFalse(expression.isCompiled());
+
+        boolean previousStrict = GlobalOptions.strict;
+        GlobalOptions.strict = false;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                boolean strict = i % 2 == 0;
+                results.add(executor.submit(() -> countExpectedOutcomes(expression, strict, 500)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assertions.assertEquals(500, results.get(i).get(30, TimeUnit.SECONDS), "strict=" + (i % 2 == 0));
+            }
+            Assertions.assertFalse(GlobalOptions.strict);
+        } finally {
+            executor.shutdownNow();
+            GlobalOptions.strict = previousStrict;
+        }
+    }
+
+    @Test
+    @DisplayName("测试非 strict 求值不受 OGNL stricter invocation 限制，strict 求值允许给参数数组下标赋值")
+    void testNonStrictEvaluationRelaxesStricterInvocationOnly() throws Throwable {
+        MockExpression invocation = MockExpression.compile(
+                "#this.returnObj=@java.lang.Runtime@getRuntime().availableProcessors()");
+        OgnlContext nonStrictRoot = OgnlContext.init(JsonUser.class.getClassLoader(), JsonUser.class, null, null,
+                new Object[0], null);
+        invocation.evaluate(nonStrictRoot, false);
+        Assertions.assertEquals(Runtime.getRuntime().availableProcessors(), nonStrictRoot.returnObj);
+
+        MockExpression strictInvocation = MockExpression.compile("@java.lang.Runtime@getRuntime()");
+        Assertions.assertThrows(ExpressException.class, () -> strictInvocation.evaluate(
+                OgnlContext.init(JsonUser.class.getClassLoader(), JsonUser.class, null, null, new Object[0], null),
+                true));
+        Assertions.assertTrue(OgnlRuntime.getUseStricterInvocationValue());
+
+        Object[] params = new Object[] { "origin" };
+        MockExpression.compile("#this.params[0]='mocked'").evaluate(
+                OgnlContext.init(JsonUser.class.getClassLoader(), JsonUser.class, null, null, params, null), true);
+        Assertions.assertEquals("mocked", params[0]);
+    }
+
+    /**
+     * strict 求值应被拒绝且参数不变，非 strict 求值应改写参数，返回符合预期的次数。
+     */
+    private static int countExpectedOutcomes(MockExpression expression, boolean strict, int times) {
+        int expected = 0;
+        for (int i = 0; i < times; i++) {
+            JsonUser user = new JsonUser("origin", null);
+            OgnlContext root = OgnlContext.init(JsonUser.class.getClassLoader(), JsonUser.class, null, null,
+                    new Object[] { user }, null);
+            try {
+                expression.evaluate(root, strict);
+                expected += !strict && "mocked".equals(user.name) ? 1 : 0;
+            } catch (IllegalAccessError | ExpressException e) {
+                expected += strict && "origin".equals(user.name) ? 1 : 0;
+            }
+        }
+        return expected;
+    }
+
     @Test
     @DisplayName("测试 -j 支持预载 JSON 数组并通过 OGNL 替换多个入参")
     void testJsonOptionArrayCanBeAssignedToMultipleParameters() throws Throwable {
@@ -326,6 +1051,28 @@ public class MockCommandTest {
         Assertions.assertEquals("nanjing", user.child.city);
     }
 
+    @Test
+    @DisplayName("测试 -j 预载 JSON 只解析一次且每次调用拿到互不影响的副本")
+    void testJsonOptionHandsOutIsolatedCopyPerInvocation() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        JsonReturnTarget target = new JsonReturnTarget();
+        MockCommand mockCommand = buildAfterMockCommandWithJson(JsonReturnTarget.class.getName(), "load",
+                "#json.child.city=#json.child.city+'-patched',#this.returnObj=#json",
+                "{\"name\":\"json-copy\",\"child\":{\"city\":\"hangzhou\"}}");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        JsonUser first = target.load();
+        JsonUser second = target.load();
+        Assertions.assertNotSame(first, second);
+        Assertions.assertNotSame(first.child, second.child);
+        Assertions.assertEquals("hangzhou-patched", first.child.city);
+        Assertions.assertEquals("hangzhou-patched", second.child.city);
+    }
+
     @Test
     @DisplayName("测试 -j 可将 JSON 数组转换为 List<T> 返回值")
     void testJsonOptionCanBeAssignedToGenericListReturn() throws Throwable {
@@ -390,6 +1137,42 @@ public class MockCommandTest {
         Assertions.assertEquals("json-before@suzhou", result);
     }
 
+    @Test
+    @DisplayName("测试 -j 可绑定到重载方法，按被调用重载的参数类型转换")
+    void testJsonOptionSupportsOverloadedMethod() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        JsonOverloadTarget target = new JsonOverloadTarget();
+        MockCommand mockCommand = buildMockCommandWithJson(JsonOverloadTarget.class.getName(), "describe",
+                "#this.params[0]=#json,#this.skip=false",
+                "{\"name\":\"json-overload\",\"child\":{\"city\":\"xiamen\"}}");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        String result = target.describe(new JsonUser("origin", new JsonChild("beijing")));
+        Assertions.assertEquals("json-overload@xiamen", result);
+    }
+
+    @Test
+    @DisplayName("测试 --descriptor 只 mock 指定的重载方法，其余重载保持原逻辑")
+    void testDescriptorOptionMocksSingleOverload() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        CommandProcess commandProcess = mockCommandProcess(instrumentation);
+
+        DescriptorOverloadTarget target = new DescriptorOverloadTarget();
+        MockCommand mockCommand = buildMockCommand(DescriptorOverloadTarget.class.getName(), "label",
+                "#this.returnObj=new java.lang.String('mocked')");
+        mockCommand.setMethodDescriptor("(Ljava/lang/String;)Ljava/lang/String;");
+
+        mockCommand.process(commandProcess);
+
+        Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+        Assertions.assertEquals("mocked", target.label("origin"));
+        Assertions.assertEquals("int:1", target.label(1));
+    }
+
     @Test
     @DisplayName("测试 OGNL 中支持 #json 作为 #this.json 的别名")
     void testJsonAliasCanBeUsedInOgnl() throws Throwable {
@@ -449,6 +1232,36 @@ public class MockCommandTest {
         Assertions.assertEquals("corgi", ((JsonDog) animal).breed);
     }
 
+    @Test
+    @DisplayName("测试 OGNL 在安装时预解析，语法错误直接拒绝安装")
+    void testInvalidOgnlIsRejectedWhenMockConfigIsPut() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> MockCommand.OgnlMockAdvice.putMockConfig(ListTarget.class, "name", null,
+                        Collections.singletonMap(MockCommand.OgnlMockAdvice.BEFORE_OGNL, "#this.returnObj=")));
+    }
+
+    @Test
+    @DisplayName("测试安装时改写的 #json 别名与逐次改写时的求值结果一致")
+    void testJsonAliasIsNormalizedOnceWhenMockConfigIsPut() throws Throwable {
+        Instrumentation instrumentation = installInstrumentation();
+        JsonAliasTarget target = new JsonAliasTarget();
+        String[][] cases = {
+                { "#json.name=\"changed\",#this.returnObj=#json.name", "changed" },
+                { "#this.returnObj='#json'", "#json" },
+                { "#jsonValue=1,#this.returnObj=#json.name", "alias" },
+                { "#this.returnObj=\"a\\\"#json\" + #json.name", "a\"#jsonalias" },
+                { "#this.returnObj=null", null }
+        };
+        for (String[] testCase : cases) {
+            CommandProcess commandProcess = mockCommandProcess(instrumentation);
+            buildMockCommandWithJson(JsonAliasTarget.class.getName(), "load", testCase[0], "{\"name\":\"alias\"}")
+                    .process(commandProcess);
+
+            Mockito.verify(commandProcess).end(Mockito.eq(0), Mockito.eq("OK"));
+            Assertions.assertEquals(testCase[1], target.load(), testCase[0]);
+        }
+    }
+
     private Instrumentation installInstrumentation() throws Throwable {
         Instrumentation instrumentation = ByteBuddyAgent.install();
 
@@ -475,6 +1288,19 @@ public class MockCommandTest {
         return commandProcess;
     }
 
+    private ClassFileTransformer countingTransformer(Class<?> clazz, AtomicInteger retransforms) {
+        return new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                    ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+                if (classBeingRedefined == clazz) {
+                    retransforms.incrementAndGet();
+                }
+                return null;
+            }
+        };
+    }
+
     private MockCommand buildMockCommand(String classPattern, String methodPattern, String beforeOgnl) {
         MockCommand mockCommand = new MockCommand();
         mockCommand.setClassPattern(classPattern);
@@ -483,6 +1309,14 @@ public class MockCommandTest {
         return mockCommand;
     }
 
+    private MockCommand buildReturnMockCommand(String classPattern, String methodPattern, String returnValue) {
+        MockCommand mockCommand = new MockCommand();
+        mockCommand.setClassPattern(classPattern);
+        mockCommand.setMethodPattern(methodPattern);
+        mockCommand.setReturnValue(returnValue);
+        return mockCommand;
+    }
+
     private MockCommand buildAfterMockCommand(String classPattern, String methodPattern, String afterOgnl) {
         MockCommand mockCommand = new MockCommand();
         mockCommand.setClassPattern(classPattern);
@@ -514,6 +1348,215 @@ public class MockCommandTest {
         }
     }
 
+    static class JsonAliasTarget {
+        Object load() {
+            return null;
+        }
+    }
+
+    static class AfterOnlyTarget {
+        int invocations;
+
+        int next() {
+            return ++invocations;
+        }
+    }
+
+    static class LimitTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class TtlTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class RateTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class ConditionTarget {
+        int invocations;
+
+        String find(long userId) {
+            invocations++;
+            return "user-" + userId;
+        }
+    }
+
+    static class RateConditionTarget {
+        String find(long userId) {
+            return "user-" + userId;
+        }
+    }
+
+    static class ScenarioTargetA {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class ScenarioTargetB {
+        int code() {
+            return 41;
+        }
+    }
+
+    static class PartialScenarioTargetA {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class PartialScenarioTargetB {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class WideTargetA {
+        String name() {
+            return "a";
+        }
+    }
+
+    static class WideTargetB {
+        String name() {
+            return "b";
+        }
+    }
+
+    static class WideTargetC {
+        String name() {
+            return "c";
+        }
+    }
+
+    static class SingleRetransformTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class RemockTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class HierarchyTarget {
+        Object pick(boolean left) {
+            HierarchyBase value = left ? new HierarchyLeft() : new HierarchyRight();
+            return value;
+        }
+    }
+
+    static class HierarchyBase {
+    }
+
+    static class HierarchyLeft extends HierarchyBase {
+    }
+
+    static class HierarchyRight extends HierarchyBase {
+    }
+
+    static class CostTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class PreEnhanceTargetA {
+        String first() {
+            return "origin";
+        }
+
+        String second() {
+            return "origin";
+        }
+    }
+
+    static class PreEnhanceTargetB {
+        String first() {
+            return "origin";
+        }
+
+        String second() {
+            return "origin";
+        }
+    }
+
+    static class CompiledTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class DelayTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class RecordTarget {
+        static String suffix = "";
+
+        String echo(String value) {
+            return value + suffix;
+        }
+
+        String first(List<String> values) {
+            return values.remove(0) + suffix;
+        }
+    }
+
+    static class TableTarget {
+        String name(int id) {
+            return "origin-" + id;
+        }
+
+        String price(BigDecimal amount) {
+            return "origin-" + amount;
+        }
+    }
+
+    static class ReturnTarget {
+        boolean enabled() {
+            return false;
+        }
+
+        String name() {
+            return "origin";
+        }
+
+        JsonUser user() {
+            return null;
+        }
+    }
+
+    static class OversizedReturnTarget {
+        String name() {
+            return "origin";
+        }
+    }
+
+    static class PrimitiveReturnTarget {
+        long price(long base) {
+            return base + 2L;
+        }
+    }
+
+    static class StatsTarget {
+        String name() {
+            return "name";
+        }
+    }
+
     static class ListTarget {
         String name() {
             return "name";
@@ -556,6 +1599,26 @@ public class MockCommandTest {
         }
     }
 
+    public static class JsonOverloadTarget {
+        public String describe(JsonUser user) {
+            return user.name + "@" + user.child.city;
+        }
+
+        public String describe(String name) {
+            return name;
+        }
+    }
+
+    public static class DescriptorOverloadTarget {
+        public String label(String name) {
+            return "string:" + name;
+        }
+
+        public String label(int value) {
+            return "int:" + value;
+        }
+    }
+
     public static class JsonMultiArgumentTarget {
         public String join(String prefix, JsonUser user) {
             return prefix + ":" + user.name + "@" + user.child.city;